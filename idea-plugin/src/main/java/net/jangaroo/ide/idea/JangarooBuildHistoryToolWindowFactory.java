@@ -0,0 +1,38 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.compiler.CompilationStatusListener;
+import com.intellij.openapi.compiler.CompileContext;
+import com.intellij.openapi.compiler.CompilerTopics;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import net.jangaroo.ide.idea.ui.JangarooBuildHistoryPanel;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tool window showing the slowest Jangaroo build targets and their trends, refreshed after every build.
+ */
+public class JangarooBuildHistoryToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+  public void createToolWindowContent(@NotNull final Project project, @NotNull ToolWindow toolWindow) {
+    final JangarooBuildHistoryPanel panel = new JangarooBuildHistoryPanel(project);
+    Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+    toolWindow.getContentManager().addContent(content);
+    project.getMessageBus().connect(content).subscribe(CompilerTopics.COMPILATION_STATUS, new CompilationStatusListener() {
+      public void compilationFinished(boolean aborted, int errors, int warnings, CompileContext compileContext) {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+          public void run() {
+            if (!project.isDisposed()) {
+              panel.refresh();
+            }
+          }
+        });
+      }
+    });
+  }
+
+}
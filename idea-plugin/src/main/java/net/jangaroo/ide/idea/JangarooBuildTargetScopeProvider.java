@@ -8,9 +8,11 @@ import com.intellij.openapi.compiler.CompilerFilter;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleType;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootManager;
 import net.jangaroo.ide.idea.jps.JangarooBuildTargetType;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.api.CmdlineProtoUtil;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
 
 import java.util.ArrayList;
 import java.util.Collections;
@@ -31,7 +33,10 @@ public class JangarooBuildTargetScopeProvider extends BuildTargetScopeProvider {
         JangarooFacet jangarooFacet = JangarooFacet.ofModule(module);
         if (jangarooFacet != null) {
           targetIds.add(FlexCommonUtils.getBuildTargetId(module.getName(), module.getName(), false));
-          targetIds.add(FlexCommonUtils.getBuildTargetId(module.getName(), module.getName(), true)); // TODO: only if there are any tests!
+          // the JPS plugin only creates a test target for modules with test sources:
+          if (!ModuleRootManager.getInstance(module).getSourceRoots(JavaSourceRootType.TEST_SOURCE).isEmpty()) {
+            targetIds.add(FlexCommonUtils.getBuildTargetId(module.getName(), module.getName(), true));
+          }
         }
       }
     }
@@ -0,0 +1,60 @@
+package net.jangaroo.ide.idea;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.compiler.CompileScope;
+import com.intellij.openapi.compiler.CompilerManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import net.jangaroo.ide.idea.jps.JangarooBuilder;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action to make all Jangaroo modules in check-only mode: the Jangaroo compiler reports errors and
+ * warnings, but does not write any JavaScript or API output and skips packaging. The next regular
+ * build writes the skipped output.
+ */
+public class JangarooCheckAction extends AnAction {
+
+  /**
+   * The IDE passes all user data of the compile scope to the build process as builder parameters.
+   */
+  private static final Key<Boolean> CHECK_ONLY = Key.create(JangarooBuilder.CHECK_ONLY_PARAMETER);
+
+  @Override
+  public void actionPerformed(@NotNull AnActionEvent e) {
+    Project project = e.getProject();
+    if (project == null) {
+      return;
+    }
+    List<Module> jangarooModules = getJangarooModules(project);
+    if (jangarooModules.isEmpty()) {
+      return;
+    }
+    CompilerManager compilerManager = CompilerManager.getInstance(project);
+    CompileScope compileScope = compilerManager.createModulesCompileScope(jangarooModules.toArray(new Module[jangarooModules.size()]), true);
+    compileScope.putUserData(CHECK_ONLY, Boolean.TRUE);
+    compilerManager.make(compileScope, null);
+  }
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    Project project = e.getProject();
+    e.getPresentation().setEnabled(project != null && !getJangarooModules(project).isEmpty());
+  }
+
+  private static List<Module> getJangarooModules(Project project) {
+    List<Module> jangarooModules = new ArrayList<Module>();
+    for (Module module : ModuleManager.getInstance(project).getModules()) {
+      if (JangarooFacet.ofModule(module) != null) {
+        jangarooModules.add(module);
+      }
+    }
+    return jangarooModules;
+  }
+}
@@ -0,0 +1,139 @@
+package net.jangaroo.ide.idea.ui;
+
+import com.intellij.compiler.server.BuildManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.table.JBTable;
+import net.jangaroo.ide.idea.jps.JangarooBuildHistory;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Shows the Jangaroo build targets of a project from the build history written by the JPS plugin,
+ * slowest first, together with the trend of their latest build compared to the builds before.
+ */
+public class JangarooBuildHistoryPanel extends JPanel {
+
+  private static final String[] COLUMN_NAMES = {
+    "Target", "Builds", "Average (ms)", "Latest (ms)", "Compile (ms)", "Package (ms)", "Files", "Trend"
+  };
+
+  private final Project project;
+  private final BuildHistoryTableModel tableModel = new BuildHistoryTableModel();
+
+  public JangarooBuildHistoryPanel(Project project) {
+    super(new BorderLayout());
+    this.project = project;
+    JBTable table = new JBTable(tableModel);
+    table.setAutoCreateRowSorter(true);
+    add(new JBScrollPane(table), BorderLayout.CENTER);
+    refresh();
+  }
+
+  /**
+   * Reload the build history from the project's JPS system directory.
+   */
+  public void refresh() {
+    List<Row> rows = new ArrayList<Row>();
+    File projectSystemDirectory = BuildManager.getInstance().getProjectSystemDirectory(project);
+    if (projectSystemDirectory != null && new File(projectSystemDirectory, JangarooBuildHistory.HISTORY_FILE_NAME).exists()) {
+      JangarooBuildHistory buildHistory = JangarooBuildHistory.load(projectSystemDirectory);
+      for (String targetId : buildHistory.getTargetIds()) {
+        List<JangarooBuildHistory.Record> records = buildHistory.getRecords(targetId);
+        if (!records.isEmpty()) {
+          rows.add(new Row(targetId, records, buildHistory.getEstimatedMillis(targetId)));
+        }
+      }
+    }
+    Collections.sort(rows, new Comparator<Row>() {
+      public int compare(Row row1, Row row2) {
+        return Long.compare(row2.averageMillis, row1.averageMillis);
+      }
+    });
+    tableModel.setRows(rows);
+  }
+
+  private static class Row {
+    private final String targetId;
+    private final int buildCount;
+    private final long averageMillis;
+    private final JangarooBuildHistory.Record latest;
+    private final String trend;
+
+    private Row(String targetId, List<JangarooBuildHistory.Record> records, long averageMillis) {
+      this.targetId = targetId;
+      this.buildCount = records.size();
+      this.averageMillis = averageMillis;
+      this.latest = records.get(records.size() - 1);
+      this.trend = computeTrend(records);
+    }
+
+    /**
+     * The change of the latest build's duration relative to the average of all builds before.
+     */
+    private static String computeTrend(List<JangarooBuildHistory.Record> records) {
+      if (records.size() < 2) {
+        return "";
+      }
+      long previousMillis = 0;
+      for (JangarooBuildHistory.Record record : records.subList(0, records.size() - 1)) {
+        previousMillis += record.getTotalMillis();
+      }
+      previousMillis /= records.size() - 1;
+      if (previousMillis == 0) {
+        return "";
+      }
+      long percent = Math.round(100.0 * (records.get(records.size() - 1).getTotalMillis() - previousMillis) / previousMillis);
+      return percent > 0 ? "+" + percent + "%" : percent + "%";
+    }
+  }
+
+  private static class BuildHistoryTableModel extends AbstractTableModel {
+    private List<Row> rows = Collections.emptyList();
+
+    private void setRows(List<Row> rows) {
+      this.rows = rows;
+      fireTableDataChanged();
+    }
+
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    public int getColumnCount() {
+      return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+      return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+      return column == 0 || column == COLUMN_NAMES.length - 1 ? String.class : Long.class;
+    }
+
+    public Object getValueAt(int rowIndex, int column) {
+      Row row = rows.get(rowIndex);
+      switch (column) {
+        case 0: return row.targetId;
+        case 1: return (long)row.buildCount;
+        case 2: return row.averageMillis;
+        case 3: return row.latest.getTotalMillis();
+        case 4: return row.latest.getCompileMillis();
+        case 5: return row.latest.getPackageMillis();
+        case 6: return (long)row.latest.getFileCount();
+        default: return row.trend;
+      }
+    }
+  }
+
+}
@@ -55,6 +55,8 @@ public class JangarooFacetEditorTabUI {
   private JRadioButton publicApiViolationsAllowRadioButton;
   private JTextField extNamespaceTextField;
   private JTextField extSassNamespaceTextField;
+  private JCheckBox compileAgainstApiStubsCheckBox;
+  private JCheckBox checkOnlyCheckBox;
 
   private static final FileChooserDescriptor COMPILER_JAR_CHOOSER_DESCRIPTOR = FileChooserDescriptorFactory.createSingleLocalFileDescriptor();
   private static final FileChooserDescriptor OUTPUT_DIRECTORY_CHOOSER_DESCRIPTOR = FileChooserDescriptorFactory.createSingleFolderDescriptor();
@@ -128,6 +130,8 @@ public class JangarooFacetEditorTabUI {
         : publicApiViolationsAllowRadioButton).getModel(), true);
     extNamespaceTextField.setText(data.extNamespace);
     extSassNamespaceTextField.setText(data.extSassNamespace);
+    compileAgainstApiStubsCheckBox.setSelected(data.compileAgainstApiStubs);
+    checkOnlyCheckBox.setSelected(data.checkOnly);
   }
 
   public JoocConfigurationBean getData(JoocConfigurationBean data) {
@@ -151,6 +155,8 @@ public class JangarooFacetEditorTabUI {
                                                                                             : PublicApiViolationsMode.ALLOW;
     data.extNamespace = extNamespaceTextField.getText();
     data.extSassNamespace = extSassNamespaceTextField.getText();
+    data.compileAgainstApiStubs = compileAgainstApiStubsCheckBox.isSelected();
+    data.checkOnly = checkOnlyCheckBox.isSelected();
     return data;
   }
 
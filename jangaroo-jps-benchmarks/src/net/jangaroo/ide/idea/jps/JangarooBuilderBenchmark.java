@@ -0,0 +1,205 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.flex.model.bc.JpsFlexBuildConfiguration;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.benchmark.SyntheticWorkspace;
+import net.jangaroo.jooc.config.JoocConfiguration;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.BuildRootDescriptor;
+import org.jetbrains.jps.builders.DirtyFilesHolder;
+import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.model.JpsModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hot paths of {@link JangarooBuilder} and {@link JangarooBuildTarget} that depend on the size
+ * of the JPS model, on a synthetic workspace of <code>modules</code> modules with <code>bcsPerModule</code>
+ * build configurations depending on <code>dependenciesPerBC</code> other modules each. Every operation
+ * covers all build targets of the workspace.
+ * <p>
+ * Lives in the package of the builder to access its non-public methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JangarooBuilderBenchmark {
+
+  @Param({"50", "300"})
+  public int modules;
+
+  @Param({"1", "3"})
+  public int bcsPerModule;
+
+  @Param({"5", "20"})
+  public int dependenciesPerBC;
+
+  @Param("20")
+  public int classesPerModule;
+
+  private File projectDirectory;
+  private JpsModel model;
+  private List<JangarooBuildTarget> targets;
+  private Map<JangarooBuildTarget, List<File>> sourceFilesByTarget;
+  private final JangarooBuilder builder = new JangarooBuilder();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    projectDirectory = FileUtil.createTempDirectory("jangaroo-benchmark", null);
+    SyntheticWorkspace workspace = new SyntheticWorkspace(projectDirectory);
+    workspace.setModuleCount(modules);
+    workspace.setBcsPerModule(bcsPerModule);
+    workspace.setDependenciesPerBC(dependenciesPerBC);
+    workspace.setClassesPerModule(classesPerModule);
+    workspace.setTestClassesPerModule(classesPerModule / 4);
+    workspace.generate();
+    model = workspace.load(null);
+    targets = JangarooBuildTargetType.INSTANCE.computeAllTargets(model);
+    sourceFilesByTarget = new HashMap<JangarooBuildTarget, List<File>>();
+    for (JangarooBuildTarget target : targets) {
+      List<File> sourceFiles = new ArrayList<File>();
+      for (BuildRootDescriptor rootDescriptor : target.computeRootDescriptors(model, null, null, null)) {
+        collectSourceFiles(rootDescriptor.getRootFile(), sourceFiles);
+      }
+      sourceFilesByTarget.put(target, sourceFiles);
+    }
+  }
+
+  private static void collectSourceFiles(File directory, List<File> sourceFiles) {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          collectSourceFiles(file, sourceFiles);
+        } else if (JangarooBuilder.AS_SOURCES_FILTER.accept(file)) {
+          sourceFiles.add(file);
+        }
+      }
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    FileUtil.delete(projectDirectory);
+  }
+
+  /**
+   * Classify all source files of all targets as dirty.
+   */
+  @Benchmark
+  public void getFilesToCompile(Blackhole blackhole) throws IOException {
+    for (JangarooBuildTarget target : targets) {
+      blackhole.consume(JangarooBuilder.getFilesToCompile(target, JangarooBuilder.AS_SOURCES_FILTER,
+        new AllFilesDirtyHolder(target, sourceFilesByTarget.get(target))));
+    }
+  }
+
+  /**
+   * Resolve class and source path of all targets without a model cache, i.e. as in the first compile of a build.
+   */
+  @Benchmark
+  public void updateFileLocations(Blackhole blackhole) {
+    for (JangarooBuildTarget target : targets) {
+      JoocConfiguration fileLocations = new JoocConfiguration();
+      JangarooBuilder.updateFileLocations(fileLocations, target.getBC(), target.isTests(), true);
+      blackhole.consume(fileLocations);
+    }
+  }
+
+  /**
+   * Resolve class and source path of all targets sharing one model cache, i.e. as during a build.
+   */
+  @Benchmark
+  public void updateFileLocationsCached(Blackhole blackhole) {
+    JangarooModelCache modelCache = new JangarooModelCache();
+    for (JangarooBuildTarget target : targets) {
+      JoocConfiguration fileLocations = new JoocConfiguration();
+      JangarooBuilder.updateFileLocations(fileLocations, target.getBC(), target.isTests(), true,
+        Collections.<JpsFlexBuildConfiguration, File>emptyMap(), modelCache);
+      blackhole.consume(fileLocations);
+    }
+  }
+
+  @Benchmark
+  public void addToClassOrSourcePath(Blackhole blackhole) {
+    for (JangarooBuildTarget target : targets) {
+      Collection<File> classPath = new LinkedHashSet<File>();
+      Collection<File> sourcePath = new LinkedHashSet<File>();
+      JangarooBuilder.addToClassOrSourcePath(target.getBC(), classPath, sourcePath, target.isTests(), true);
+      blackhole.consume(classPath);
+      blackhole.consume(sourcePath);
+    }
+  }
+
+  @Benchmark
+  public void getJoocConfiguration(Blackhole blackhole) {
+    JangarooModelCache modelCache = new JangarooModelCache();
+    for (JangarooBuildTarget target : targets) {
+      JoocConfigurationBean joocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(target.getBC().getModule());
+      blackhole.consume(builder.getJoocConfiguration(joocConfigurationBean, target.getBC(), sourceFilesByTarget.get(target),
+        target.isTests(), Collections.<JpsFlexBuildConfiguration, File>emptyMap(), modelCache));
+    }
+  }
+
+  @Benchmark
+  public void computeRootDescriptors(Blackhole blackhole) {
+    for (JangarooBuildTarget target : targets) {
+      blackhole.consume(target.computeRootDescriptors(model, null, null, null));
+    }
+  }
+
+  /**
+   * Reports the given files of one target as dirty, like JPS does for a forced build of the target.
+   */
+  private static class AllFilesDirtyHolder implements DirtyFilesHolder<BuildRootDescriptor, JangarooBuildTarget> {
+    private final JangarooBuildTarget target;
+    private final List<File> files;
+
+    private AllFilesDirtyHolder(JangarooBuildTarget target, List<File> files) {
+      this.target = target;
+      this.files = files;
+    }
+
+    public void processDirtyFiles(@NotNull FileProcessor<BuildRootDescriptor, JangarooBuildTarget> processor) throws IOException {
+      for (File file : files) {
+        if (!processor.apply(target, file, null)) {
+          return;
+        }
+      }
+    }
+
+    public boolean hasDirtyFiles() {
+      return !files.isEmpty();
+    }
+
+    public boolean hasRemovedFiles() {
+      return false;
+    }
+
+    @NotNull
+    public Collection<String> getRemovedFiles(@NotNull JangarooBuildTarget target) {
+      return Collections.emptyList();
+    }
+  }
+
+}
@@ -0,0 +1,45 @@
+package net.jangaroo.ide.idea.jps.benchmark;
+
+import net.jangaroo.ide.idea.jps.util.CompilerLoaderBenchmark;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of the Jangaroo JPS plugin with the GC profiler, so that allocation rates are
+ * reported next to timings. Takes regular expressions selecting benchmarks as arguments; without arguments,
+ * runs all benchmarks, except for the compiler loader benchmarks if no Jangaroo SDK is configured (see
+ * {@link CompilerLoaderBenchmark}).
+ * <p>
+ * Run from the IDE with this module's class path; the benchmark classes are generated by the JMH annotation
+ * processor when compiling this module.
+ */
+public class JangarooBenchmarks {
+
+  public static void main(String[] args) throws RunnerException {
+    ChainedOptionsBuilder options = new OptionsBuilder()
+      .addProfiler(GCProfiler.class)
+      .warmupIterations(5)
+      .measurementIterations(10)
+      .forks(1);
+    String sdkJars = System.getProperty(CompilerLoaderBenchmark.SDK_JARS_PROPERTY);
+    if (sdkJars != null) {
+      // forked benchmark JVMs do not inherit system properties:
+      options.jvmArgsAppend("-D" + CompilerLoaderBenchmark.SDK_JARS_PROPERTY + "=" + sdkJars);
+    }
+    if (args.length == 0) {
+      options.include("net\\.jangaroo\\.ide\\.idea\\.jps\\..*Benchmark");
+      if (sdkJars == null) {
+        options.exclude(CompilerLoaderBenchmark.class.getSimpleName());
+      }
+    } else {
+      for (String include : args) {
+        options.include(include);
+      }
+    }
+    new Runner(options.build()).run();
+  }
+
+}
@@ -0,0 +1,181 @@
+package net.jangaroo.ide.idea.jps.benchmark;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.JangarooBuildTargetType;
+import org.jetbrains.jps.api.CmdlineProtoUtil;
+import org.jetbrains.jps.build.Standalone;
+import org.jetbrains.jps.cmdline.JpsModelLoader;
+import org.jetbrains.jps.incremental.MessageHandler;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.model.JpsModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a {@link SyntheticWorkspace} headlessly with the Jangaroo builder through standalone JPS and
+ * reports latency percentiles of the following scenarios:
+ * <ul>
+ *   <li>full: forced rebuild of all Jangaroo targets,</li>
+ *   <li>no-op: build without any change,</li>
+ *   <li>leaf edit: implementation change in a module no other module depends on,</li>
+ *   <li>base API edit: API change of the class all dependents of the first module use,</li>
+ *   <li>branch switch: change of a share of all classes, some of them in their API, toggling back and forth.</li>
+ * </ul>
+ * The JPS data storage is kept between builds, like in the IDE. The Jangaroo SDK home directory (in Maven
+ * repository or SDK download layout) must be given by the system property <code>jangaroo.harness.sdkHome</code>.
+ * The workspace is configured by system properties <code>jangaroo.harness.modules</code>,
+ * <code>.classes</code>, <code>.fanOut</code>, <code>.fanInSkew</code>, <code>.mxmlRatio</code>,
+ * <code>.propertiesRatio</code> and <code>.branchSwitchShare</code>, the number of measured builds per
+ * scenario by <code>.iterations</code> and <code>.warmupIterations</code>.
+ */
+public class JangarooBuildHarness {
+
+  private static final String PROPERTY_PREFIX = "jangaroo.harness.";
+  private static final String SDK_NAME = "Jangaroo SDK (harness)";
+
+  private final SyntheticWorkspace workspace;
+  private final File optionsDirectory;
+  private final File dataStorageRoot;
+  private final Random random = new Random(42);
+  private int errorCount;
+  private final List<String> firstErrors = new ArrayList<String>();
+
+  public JangarooBuildHarness(SyntheticWorkspace workspace, File optionsDirectory, File dataStorageRoot) {
+    this.workspace = workspace;
+    this.optionsDirectory = optionsDirectory;
+    this.dataStorageRoot = dataStorageRoot;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String sdkHome = System.getProperty(PROPERTY_PREFIX + "sdkHome");
+    if (sdkHome == null) {
+      System.err.println("Set system property " + PROPERTY_PREFIX + "sdkHome to the home directory of a Jangaroo SDK.");
+      System.exit(1);
+    }
+    File workDirectory = FileUtil.createTempDirectory("jangaroo-harness", null);
+    SyntheticWorkspace workspace = new SyntheticWorkspace(new File(workDirectory, "project"));
+    workspace.setModuleCount(Integer.getInteger(PROPERTY_PREFIX + "modules", 100));
+    workspace.setClassesPerModule(Integer.getInteger(PROPERTY_PREFIX + "classes", 50));
+    workspace.setDependenciesPerBC(Integer.getInteger(PROPERTY_PREFIX + "fanOut", 5));
+    workspace.setFanInSkew(getDouble("fanInSkew", 1.0));
+    workspace.setMxmlRatio(getDouble("mxmlRatio", 0.2));
+    workspace.setPropertiesRatio(getDouble("propertiesRatio", 0.1));
+    workspace.setJangarooSdkName(SDK_NAME);
+    workspace.generate();
+    File optionsDirectory = new File(workDirectory, "options");
+    SyntheticWorkspace.writeJangarooSdkOptions(optionsDirectory, SDK_NAME, new File(sdkHome));
+
+    JangarooBuildHarness harness = new JangarooBuildHarness(workspace, optionsDirectory, new File(workDirectory, "system"));
+    try {
+      Map<String, List<Long>> durationsByScenario = harness.run(Integer.getInteger(PROPERTY_PREFIX + "iterations", 10),
+        Integer.getInteger(PROPERTY_PREFIX + "warmupIterations", 1), getDouble("branchSwitchShare", 0.2));
+      System.out.println(formatReport(workspace, durationsByScenario));
+      if (harness.errorCount > 0) {
+        System.err.println(harness.errorCount + " compile errors, e.g.:");
+        for (String error : harness.firstErrors) {
+          System.err.println("  " + error);
+        }
+      }
+    } finally {
+      FileUtil.delete(workDirectory);
+    }
+    System.exit(harness.errorCount > 0 ? 1 : 0);
+  }
+
+  private static double getDouble(String name, double defaultValue) {
+    String value = System.getProperty(PROPERTY_PREFIX + name);
+    return value == null ? defaultValue : Double.parseDouble(value);
+  }
+
+  /**
+   * Run all scenarios.
+   * @return the measured build durations in milliseconds by scenario name
+   */
+  public Map<String, List<Long>> run(int iterations, int warmupIterations, double branchSwitchShare) throws Exception {
+    Map<String, List<Long>> durationsByScenario = new LinkedHashMap<String, List<Long>>();
+    List<Integer> leafModules = workspace.getLeafModules();
+    for (int i = 0; i < warmupIterations + iterations; i++) {
+      boolean measure = i >= warmupIterations;
+      record(durationsByScenario, "full", measure, build(true));
+      record(durationsByScenario, "no-op", measure, build(false));
+      workspace.editImplementation(leafModules.get(random.nextInt(leafModules.size())), random.nextInt(workspace.getClassesPerModule()));
+      record(durationsByScenario, "leaf edit", measure, build(false));
+      workspace.editApi(0, 0);
+      record(durationsByScenario, "base API edit", measure, build(false));
+      workspace.switchBranch(branchSwitchShare);
+      record(durationsByScenario, "branch switch", measure, build(false));
+    }
+    return durationsByScenario;
+  }
+
+  private static void record(Map<String, List<Long>> durationsByScenario, String scenario, boolean measure, long durationMillis) {
+    if (measure) {
+      List<Long> durations = durationsByScenario.get(scenario);
+      if (durations == null) {
+        durations = new ArrayList<Long>();
+        durationsByScenario.put(scenario, durations);
+      }
+      durations.add(durationMillis);
+    }
+  }
+
+  /**
+   * Build all Jangaroo targets of the workspace.
+   * @return the duration of the build in milliseconds, including loading the model
+   */
+  public long build(boolean forceBuild) throws Exception {
+    long start = System.nanoTime();
+    Standalone.runBuild(new JpsModelLoader() {
+      public JpsModel loadModel() throws IOException {
+        return workspace.load(optionsDirectory);
+      }
+    }, dataStorageRoot, new MessageHandler() {
+      public void processMessage(BuildMessage message) {
+        if (message.getKind() == BuildMessage.Kind.ERROR) {
+          // targets may be built in parallel:
+          synchronized (firstErrors) {
+            if (errorCount++ < 10) {
+              firstErrors.add(message.getMessageText());
+            }
+          }
+        }
+      }
+    }, Collections.singletonList(CmdlineProtoUtil.createAllTargetsScope(JangarooBuildTargetType.INSTANCE, forceBuild)), false);
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+  }
+
+  static String formatReport(SyntheticWorkspace workspace, Map<String, List<Long>> durationsByScenario) {
+    StringBuilder report = new StringBuilder();
+    report.append(String.format("Jangaroo build latencies (ms) for %d modules with %d classes each:%n",
+      workspace.getModuleCount(), workspace.getClassesPerModule()));
+    report.append(String.format("%-15s %6s %8s %8s %8s %8s %8s%n", "scenario", "builds", "mean", "p50", "p90", "p99", "max"));
+    for (Map.Entry<String, List<Long>> entry : durationsByScenario.entrySet()) {
+      List<Long> durations = new ArrayList<Long>(entry.getValue());
+      Collections.sort(durations);
+      long total = 0;
+      for (long duration : durations) {
+        total += duration;
+      }
+      report.append(String.format("%-15s %6d %8d %8d %8d %8d %8d%n", entry.getKey(), durations.size(), total / durations.size(),
+        percentile(durations, 50), percentile(durations, 90), percentile(durations, 99), durations.get(durations.size() - 1)));
+    }
+    return report.toString();
+  }
+
+  /**
+   * The nearest-rank percentile of the given sorted values.
+   */
+  static long percentile(List<Long> sortedValues, int percent) {
+    int rank = (int)Math.ceil(percent / 100.0 * sortedValues.size());
+    return sortedValues.get(Math.max(0, rank - 1));
+  }
+
+}
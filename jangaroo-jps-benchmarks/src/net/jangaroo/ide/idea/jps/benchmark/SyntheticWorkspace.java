@@ -0,0 +1,513 @@
+package net.jangaroo.ide.idea.jps.benchmark;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.JangarooModelSerializerExtension;
+import net.jangaroo.ide.idea.jps.JpsJangarooSdkType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.serialization.JpsSerializationManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic IDEA project of Flex modules with Jangaroo facets on disk, to be loaded as a JPS
+ * model through the same serializers the build process uses. Module <code>i</code> only depends on modules
+ * with a lower index, so the module graph is acyclic. Generation is deterministic for a given seed.
+ * <p>
+ * Each module has a number of classes, a configurable share of which are MXML classes or properties
+ * resource bundles, while class 0 of each module always is an ActionScript class that serves as its API
+ * used by all dependent modules. After generating, implementations and APIs can be edited to simulate
+ * incremental builds.
+ */
+public class SyntheticWorkspace {
+
+  public enum Kind {
+    ACTION_SCRIPT(".as"), MXML(".mxml"), PROPERTIES("_properties.properties");
+
+    private final String suffix;
+
+    Kind(String suffix) {
+      this.suffix = suffix;
+    }
+  }
+
+  private final File projectDirectory;
+  private int moduleCount = 10;
+  private int bcsPerModule = 1;
+  private int dependenciesPerBC = 3;
+  private double fanInSkew = 0;
+  private int classesPerModule = 20;
+  private int testClassesPerModule = 0;
+  private double mxmlRatio = 0;
+  private double propertiesRatio = 0;
+  private String jangarooSdkName;
+  private long seed = 42;
+
+  private final List<String> moduleNames = new ArrayList<String>();
+  private final List<List<Integer>> dependenciesByModule = new ArrayList<List<Integer>>();
+  private final List<Kind[]> kindsByModule = new ArrayList<Kind[]>();
+  private final List<int[]> implementationVersionsByModule = new ArrayList<int[]>();
+  private final List<int[]> apiVersionsByModule = new ArrayList<int[]>();
+
+  public SyntheticWorkspace(@NotNull File projectDirectory) {
+    this.projectDirectory = projectDirectory;
+  }
+
+  public File getProjectDirectory() {
+    return projectDirectory;
+  }
+
+  public void setModuleCount(int moduleCount) {
+    this.moduleCount = moduleCount;
+  }
+
+  public int getModuleCount() {
+    return moduleCount;
+  }
+
+  public void setBcsPerModule(int bcsPerModule) {
+    this.bcsPerModule = bcsPerModule;
+  }
+
+  /**
+   * The fan-out: the number of modules each build configuration depends on, at most the number of modules
+   * before it.
+   */
+  public void setDependenciesPerBC(int dependenciesPerBC) {
+    this.dependenciesPerBC = dependenciesPerBC;
+  }
+
+  /**
+   * How strongly dependencies concentrate on the first modules, which thus get a high fan-in like the base
+   * modules of a real workspace. With 0 (the default), all modules before a module are equally likely to be
+   * chosen as its dependencies; with skew <code>s</code>, module <code>j</code> is chosen with a weight of
+   * <code>1/(j+1)^s</code>.
+   */
+  public void setFanInSkew(double fanInSkew) {
+    this.fanInSkew = fanInSkew;
+  }
+
+  public void setClassesPerModule(int classesPerModule) {
+    this.classesPerModule = classesPerModule;
+  }
+
+  public int getClassesPerModule() {
+    return classesPerModule;
+  }
+
+  public void setTestClassesPerModule(int testClassesPerModule) {
+    this.testClassesPerModule = testClassesPerModule;
+  }
+
+  /**
+   * The share of classes (except class 0) to generate as MXML.
+   */
+  public void setMxmlRatio(double mxmlRatio) {
+    this.mxmlRatio = mxmlRatio;
+  }
+
+  /**
+   * The share of classes (except class 0) to generate as properties resource bundles.
+   */
+  public void setPropertiesRatio(double propertiesRatio) {
+    this.propertiesRatio = propertiesRatio;
+  }
+
+  /**
+   * The name of the Jangaroo SDK to configure in all Jangaroo facets, needed to actually build the workspace.
+   */
+  public void setJangarooSdkName(@Nullable String jangarooSdkName) {
+    this.jangarooSdkName = jangarooSdkName;
+  }
+
+  public void setSeed(long seed) {
+    this.seed = seed;
+  }
+
+  @NotNull
+  public List<String> getModuleNames() {
+    return Collections.unmodifiableList(moduleNames);
+  }
+
+  /**
+   * The indexes of the modules the given module depends on.
+   */
+  @NotNull
+  public List<Integer> getDependencies(int moduleIndex) {
+    return Collections.unmodifiableList(dependenciesByModule.get(moduleIndex));
+  }
+
+  /**
+   * The indexes of all modules no other module depends on.
+   */
+  @NotNull
+  public List<Integer> getLeafModules() {
+    boolean[] hasDependents = new boolean[moduleCount];
+    for (List<Integer> dependencies : dependenciesByModule) {
+      for (int dependency : dependencies) {
+        hasDependents[dependency] = true;
+      }
+    }
+    List<Integer> leafModules = new ArrayList<Integer>();
+    for (int i = 0; i < moduleCount; i++) {
+      if (!hasDependents[i]) {
+        leafModules.add(i);
+      }
+    }
+    return leafModules;
+  }
+
+  @NotNull
+  public File getModuleDirectory(int moduleIndex) {
+    return new File(projectDirectory, moduleNames.get(moduleIndex));
+  }
+
+  @NotNull
+  public File getSourceDirectory(int moduleIndex) {
+    return new File(getModuleDirectory(moduleIndex), "src/main/joo");
+  }
+
+  @NotNull
+  public File getTestSourceDirectory(int moduleIndex) {
+    return new File(getModuleDirectory(moduleIndex), "src/test/joo");
+  }
+
+  public Kind getKind(int moduleIndex, int classIndex) {
+    return kindsByModule.get(moduleIndex)[classIndex];
+  }
+
+  /**
+   * The file of the given class of the given module, see {@link #getClassName(int, int)}.
+   */
+  @NotNull
+  public File getSourceFile(int moduleIndex, int classIndex) {
+    return new File(getSourceDirectory(moduleIndex), getPackageName(moduleIndex) + "/" + getClassName(moduleIndex, classIndex)
+      + getKind(moduleIndex, classIndex).suffix);
+  }
+
+  @NotNull
+  public static String getPackageName(int moduleIndex) {
+    return "m" + moduleIndex;
+  }
+
+  @NotNull
+  public static String getClassName(int moduleIndex, int classIndex) {
+    return "M" + moduleIndex + "Class" + classIndex;
+  }
+
+  /**
+   * Delete and (re-)generate the whole project.
+   */
+  public void generate() throws IOException {
+    FileUtil.delete(projectDirectory);
+    moduleNames.clear();
+    dependenciesByModule.clear();
+    kindsByModule.clear();
+    implementationVersionsByModule.clear();
+    apiVersionsByModule.clear();
+    Random random = new Random(seed);
+    for (int i = 0; i < moduleCount; i++) {
+      moduleNames.add("module" + i);
+      dependenciesByModule.add(chooseDependencies(i, random));
+      kindsByModule.add(chooseKinds(random));
+      implementationVersionsByModule.add(new int[classesPerModule]);
+      apiVersionsByModule.add(new int[classesPerModule]);
+    }
+    StringBuilder modulesXml = new StringBuilder();
+    modulesXml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project version=\"4\">\n")
+      .append("  <component name=\"ProjectModuleManager\">\n    <modules>\n");
+    for (int i = 0; i < moduleCount; i++) {
+      String imlPath = "$PROJECT_DIR$/" + moduleNames.get(i) + "/" + moduleNames.get(i) + ".iml";
+      modulesXml.append("      <module fileurl=\"file://").append(imlPath).append("\" filepath=\"").append(imlPath).append("\" />\n");
+      generateModule(i);
+    }
+    modulesXml.append("    </modules>\n  </component>\n</project>\n");
+    write(new File(projectDirectory, ".idea/modules.xml"), modulesXml.toString());
+    write(new File(projectDirectory, ".idea/misc.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project version=\"4\" />\n");
+  }
+
+  private List<Integer> chooseDependencies(int moduleIndex, Random random) {
+    List<Integer> candidates = new ArrayList<Integer>();
+    List<Double> weights = new ArrayList<Double>();
+    for (int j = 0; j < moduleIndex; j++) {
+      candidates.add(j);
+      weights.add(Math.pow(j + 1, -fanInSkew));
+    }
+    List<Integer> dependencies = new ArrayList<Integer>();
+    while (dependencies.size() < dependenciesPerBC && !candidates.isEmpty()) {
+      double totalWeight = 0;
+      for (double weight : weights) {
+        totalWeight += weight;
+      }
+      double choice = random.nextDouble() * totalWeight;
+      int chosen = 0;
+      while (chosen < candidates.size() - 1 && (choice -= weights.get(chosen)) > 0) {
+        ++chosen;
+      }
+      dependencies.add(candidates.remove(chosen));
+      weights.remove(chosen);
+    }
+    Collections.sort(dependencies);
+    return dependencies;
+  }
+
+  private Kind[] chooseKinds(Random random) {
+    Kind[] kinds = new Kind[classesPerModule];
+    for (int classIndex = 0; classIndex < classesPerModule; classIndex++) {
+      double choice = classIndex == 0 ? 1 : random.nextDouble();
+      kinds[classIndex] = choice < propertiesRatio ? Kind.PROPERTIES : choice < propertiesRatio + mxmlRatio ? Kind.MXML : Kind.ACTION_SCRIPT;
+    }
+    return kinds;
+  }
+
+  private void generateModule(int moduleIndex) throws IOException {
+    for (int classIndex = 0; classIndex < classesPerModule; classIndex++) {
+      writeClass(moduleIndex, classIndex);
+    }
+    for (int classIndex = 0; classIndex < testClassesPerModule; classIndex++) {
+      String testClassName = getClassName(moduleIndex, classIndex) + "Test";
+      write(new File(getTestSourceDirectory(moduleIndex), getPackageName(moduleIndex) + "/" + testClassName + Kind.ACTION_SCRIPT.suffix),
+        generateActionScriptClass(moduleIndex, classIndex, testClassName));
+    }
+    write(new File(getModuleDirectory(moduleIndex), moduleNames.get(moduleIndex) + ".iml"), generateIml(moduleIndex));
+  }
+
+  /**
+   * Change the implementation, but not the API of the given class.
+   * @return the changed source file
+   */
+  @NotNull
+  public File editImplementation(int moduleIndex, int classIndex) throws IOException {
+    ++implementationVersionsByModule.get(moduleIndex)[classIndex];
+    return writeClass(moduleIndex, classIndex);
+  }
+
+  /**
+   * Change the API of the given class by adding a public method.
+   * @return the changed source file
+   */
+  @NotNull
+  public File editApi(int moduleIndex, int classIndex) throws IOException {
+    ++apiVersionsByModule.get(moduleIndex)[classIndex];
+    return writeClass(moduleIndex, classIndex);
+  }
+
+  /**
+   * Simulate switching to another branch and back: every call toggles the given share of all classes
+   * between two versions, where every tenth toggled class also differs in its API.
+   * @return the changed source files
+   */
+  @NotNull
+  public List<File> switchBranch(double share) throws IOException {
+    List<File> changedFiles = new ArrayList<File>();
+    Random random = new Random(seed + 1);
+    int toggled = 0;
+    for (int moduleIndex = 0; moduleIndex < moduleCount; moduleIndex++) {
+      for (int classIndex = 0; classIndex < classesPerModule; classIndex++) {
+        if (random.nextDouble() < share) {
+          int[] implementationVersions = implementationVersionsByModule.get(moduleIndex);
+          implementationVersions[classIndex] = implementationVersions[classIndex] == 0 ? 1 : 0;
+          if (toggled++ % 10 == 0) {
+            int[] apiVersions = apiVersionsByModule.get(moduleIndex);
+            apiVersions[classIndex] = apiVersions[classIndex] == 0 ? 1 : 0;
+          }
+          changedFiles.add(writeClass(moduleIndex, classIndex));
+        }
+      }
+    }
+    return changedFiles;
+  }
+
+  private File writeClass(int moduleIndex, int classIndex) throws IOException {
+    File sourceFile = getSourceFile(moduleIndex, classIndex);
+    String className = getClassName(moduleIndex, classIndex);
+    String source;
+    switch (getKind(moduleIndex, classIndex)) {
+      case MXML: source = generateMxmlClass(moduleIndex, classIndex); break;
+      case PROPERTIES: source = generateProperties(moduleIndex, classIndex); break;
+      default: source = generateActionScriptClass(moduleIndex, classIndex, className);
+    }
+    long oldTimestamp = sourceFile.lastModified();
+    write(sourceFile, source);
+    // make sure the build notices the change, even on file systems with coarse time stamps:
+    if (oldTimestamp != 0 && sourceFile.lastModified() <= oldTimestamp) {
+      //noinspection ResultOfMethodCallIgnored
+      sourceFile.setLastModified(oldTimestamp + 2000);
+    }
+    return sourceFile;
+  }
+
+  /**
+   * A class that uses class 0 of each module the given module depends on and its code predecessor in the
+   * same module, so that changing an API ripples through the module graph.
+   */
+  private String generateActionScriptClass(int moduleIndex, int classIndex, String className) {
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(getPackageName(moduleIndex)).append(" {\n\n");
+    appendImports(source, moduleIndex);
+    source.append("\npublic class ").append(className).append(" {\n\n");
+    source.append("  public function ").append(className).append("() {\n");
+    appendConstructorBody(source, moduleIndex, "    ");
+    source.append("  }\n\n");
+    appendMembers(source, moduleIndex, classIndex, "  ");
+    source.append("}\n}\n");
+    return source.toString();
+  }
+
+  private String generateMxmlClass(int moduleIndex, int classIndex) {
+    StringBuilder source = new StringBuilder();
+    source.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    source.append("<fx:Object xmlns:fx=\"http://ns.adobe.com/mxml/2009\">\n  <fx:Script><![CDATA[\n");
+    appendImports(source, moduleIndex);
+    source.append('\n');
+    appendMembers(source, moduleIndex, classIndex, "    ");
+    source.append("  ]]></fx:Script>\n</fx:Object>\n");
+    return source.toString();
+  }
+
+  private String generateProperties(int moduleIndex, int classIndex) {
+    StringBuilder source = new StringBuilder();
+    source.append("# resource bundle of module ").append(moduleNames.get(moduleIndex)).append('\n');
+    for (int i = 0; i < 10; i++) {
+      source.append("key").append(i).append('=').append("Text ").append(i).append(" of ").append(getClassName(moduleIndex, classIndex))
+        .append(" (version ").append(implementationVersionsByModule.get(moduleIndex)[classIndex]).append(")\n");
+    }
+    for (int i = 0; i < apiVersionsByModule.get(moduleIndex)[classIndex]; i++) {
+      source.append("addedKey").append(i).append("=Added text ").append(i).append('\n');
+    }
+    return source.toString();
+  }
+
+  private void appendImports(StringBuilder source, int moduleIndex) {
+    for (int dependency : dependenciesByModule.get(moduleIndex)) {
+      source.append("import ").append(getPackageName(dependency)).append('.').append(getClassName(dependency, 0)).append(";\n");
+    }
+  }
+
+  private void appendConstructorBody(StringBuilder source, int moduleIndex, String indent) {
+    for (int dependency : dependenciesByModule.get(moduleIndex)) {
+      source.append(indent).append("new ").append(getClassName(dependency, 0)).append("().compute(0);\n");
+    }
+  }
+
+  private void appendMembers(StringBuilder source, int moduleIndex, int classIndex, String indent) {
+    int predecessor = classIndex - 1;
+    while (predecessor >= 0 && getKind(moduleIndex, predecessor) == Kind.PROPERTIES) {
+      --predecessor;
+    }
+    source.append(indent).append("public function compute(value:int):int {\n");
+    if (getKind(moduleIndex, classIndex) == Kind.MXML) {
+      // MXML classes have no explicit constructor, so use dependencies here:
+      appendConstructorBody(source, moduleIndex, indent + "  ");
+    }
+    String increment = String.valueOf(implementationVersionsByModule.get(moduleIndex)[classIndex] + 1);
+    if (predecessor >= 0) {
+      source.append(indent).append("  return new ").append(getClassName(moduleIndex, predecessor)).append("().compute(value) + ").append(increment).append(";\n");
+    } else {
+      source.append(indent).append("  return value + ").append(increment).append(";\n");
+    }
+    source.append(indent).append("}\n");
+    for (int i = 0; i < apiVersionsByModule.get(moduleIndex)[classIndex]; i++) {
+      source.append('\n').append(indent).append("public function addedMethod").append(i).append("():String {\n");
+      source.append(indent).append("  return \"").append(i).append("\";\n").append(indent).append("}\n");
+    }
+  }
+
+  private String generateIml(int moduleIndex) {
+    String moduleName = moduleNames.get(moduleIndex);
+    StringBuilder iml = new StringBuilder();
+    iml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<module type=\"Flex\" version=\"4\">\n");
+    iml.append("  <component name=\"FlexBuildConfigurationManager\" active=\"").append(getBCName(moduleName, 0)).append("\">\n");
+    iml.append("    <configurations>\n");
+    for (int bcIndex = 0; bcIndex < bcsPerModule; bcIndex++) {
+      iml.append("      <configuration name=\"").append(getBCName(moduleName, bcIndex))
+        .append("\" pure-as=\"true\" output-type=\"Library\" output-file=\"").append(moduleName).append(".swc\" output-folder=\"$MODULE_DIR$/target\">\n");
+      iml.append("        <dependencies>\n          <entries>\n");
+      for (int dependency : dependenciesByModule.get(moduleIndex)) {
+        String dependencyName = moduleNames.get(dependency);
+        iml.append("            <entry module-name=\"").append(dependencyName).append("\" build-configuration-name=\"")
+          .append(getBCName(dependencyName, 0)).append("\">\n");
+        iml.append("              <dependency linkage=\"Merged\" />\n            </entry>\n");
+      }
+      iml.append("          </entries>\n        </dependencies>\n        <compiler-options />\n");
+      iml.append("        <packaging-air-desktop />\n        <packaging-android />\n        <packaging-ios />\n");
+      iml.append("      </configuration>\n");
+    }
+    iml.append("    </configurations>\n    <compiler-options />\n  </component>\n");
+    iml.append("  <component name=\"NewModuleRootManager\" inherit-compiler-output=\"true\">\n    <exclude-output />\n");
+    iml.append("    <content url=\"file://$MODULE_DIR$\">\n");
+    iml.append("      <sourceFolder url=\"file://$MODULE_DIR$/src/main/joo\" isTestSource=\"false\" />\n");
+    if (testClassesPerModule > 0) {
+      iml.append("      <sourceFolder url=\"file://$MODULE_DIR$/src/test/joo\" isTestSource=\"true\" />\n");
+    }
+    iml.append("      <excludeFolder url=\"file://$MODULE_DIR$/target\" />\n    </content>\n");
+    iml.append("    <orderEntry type=\"inheritedJdk\" />\n    <orderEntry type=\"sourceFolder\" forTests=\"false\" />\n");
+    for (int dependency : dependenciesByModule.get(moduleIndex)) {
+      iml.append("    <orderEntry type=\"module\" module-name=\"").append(moduleNames.get(dependency)).append("\" />\n");
+    }
+    iml.append("  </component>\n");
+    String moduleDirectory = FileUtil.toSystemIndependentName(getModuleDirectory(moduleIndex).getAbsolutePath());
+    iml.append("  <component name=\"FacetManager\">\n");
+    iml.append("    <facet type=\"").append(JangarooModelSerializerExtension.JANGAROO_FACET_ID).append("\" name=\"Jangaroo\">\n");
+    iml.append("      <configuration>\n");
+    if (jangarooSdkName != null) {
+      appendOption(iml, "jangarooSdkName", jangarooSdkName);
+    }
+    appendOption(iml, "outputDirectory", moduleDirectory + "/target/jangaroo-output/joo/classes");
+    appendOption(iml, "apiOutputDirectory", moduleDirectory + "/target/jangaroo-output/META-INF/joo-api");
+    appendOption(iml, "testOutputDirectory", moduleDirectory + "/target/jangaroo-test-output/joo/classes");
+    iml.append("      </configuration>\n    </facet>\n  </component>\n</module>\n");
+    return iml.toString();
+  }
+
+  @NotNull
+  public static String getBCName(@NotNull String moduleName, int bcIndex) {
+    return bcIndex == 0 ? moduleName : moduleName + "-bc" + bcIndex;
+  }
+
+  private static void appendOption(StringBuilder xml, String name, String value) {
+    xml.append("        <option name=\"").append(name).append("\" value=\"").append(value).append("\" />\n");
+  }
+
+  private static void write(File file, String content) throws IOException {
+    FileUtil.writeToFile(file, content);
+  }
+
+  /**
+   * Write an IDEA options directory that defines a Jangaroo SDK with the given name and home directory,
+   * as needed to build the workspace (see {@link #setJangarooSdkName(String)}).
+   */
+  public static void writeJangarooSdkOptions(@NotNull File optionsDirectory, @NotNull String sdkName, @NotNull File sdkHome) throws IOException {
+    String sdkHomePath = FileUtil.toSystemIndependentName(sdkHome.getAbsolutePath());
+    write(new File(optionsDirectory, "jdk.table.xml"), "<application>\n  <component name=\"ProjectJdkTable\">\n"
+      + "    <jdk version=\"2\">\n"
+      + "      <name value=\"" + sdkName + "\" />\n"
+      + "      <type value=\"" + JpsJangarooSdkType.JANGAROO_SDK_TYPE_ID + "\" />\n"
+      + "      <homePath value=\"" + sdkHomePath + "\" />\n"
+      + "      <roots>\n"
+      + "        <annotationsPath><root type=\"composite\" /></annotationsPath>\n"
+      + "        <classPath><root type=\"composite\" /></classPath>\n"
+      + "        <javadocPath><root type=\"composite\" /></javadocPath>\n"
+      + "        <sourcePath><root type=\"composite\" /></sourcePath>\n"
+      + "      </roots>\n"
+      + "      <additional />\n"
+      + "    </jdk>\n  </component>\n</application>\n");
+  }
+
+  /**
+   * Load the generated project as a JPS model.
+   * @param optionsDirectory the IDEA options directory containing global libraries and SDKs, or <code>null</code>
+   */
+  @NotNull
+  public JpsModel load(@Nullable File optionsDirectory) throws IOException {
+    return JpsSerializationManager.getInstance().loadModel(projectDirectory.getPath(),
+      optionsDirectory == null ? null : optionsDirectory.getPath());
+  }
+
+}
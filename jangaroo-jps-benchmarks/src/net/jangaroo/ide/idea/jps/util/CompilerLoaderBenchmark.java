@@ -0,0 +1,87 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.jooc.api.Jooc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Measures loading a Jangaroo compiler through {@link CompilerLoader}, with a cached class loader and with a
+ * newly created one. The Jangaroo SDK jars must be given by the system property
+ * <code>jangaroo.benchmark.sdkJars</code> (separated by the platform's path separator).
+ * <p>
+ * To create a class loader on every invocation, each jar list gets one of several jars without classes appended,
+ * more than the class loader cache holds, so that every lookup misses the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CompilerLoaderBenchmark {
+
+  public static final String SDK_JARS_PROPERTY = "jangaroo.benchmark.sdkJars";
+  private static final int UNCACHED_JAR_LISTS = 2 * Integer.getInteger("jangaroo.compilerLoader.maxClassLoaders", 4) + 1;
+
+  private File emptyJarDirectory;
+  private List<String> sdkJars;
+  private List<List<String>> uncachedJarLists;
+  private int nextUncachedJarList;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    String sdkJarsProperty = System.getProperty(SDK_JARS_PROPERTY);
+    if (sdkJarsProperty == null) {
+      throw new IllegalStateException("Set system property " + SDK_JARS_PROPERTY + " to the jars of a Jangaroo SDK.");
+    }
+    sdkJars = Arrays.asList(sdkJarsProperty.split(File.pathSeparator));
+    emptyJarDirectory = FileUtil.createTempDirectory("jangaroo-benchmark-jars", null);
+    uncachedJarLists = new ArrayList<List<String>>();
+    for (int i = 0; i < UNCACHED_JAR_LISTS; i++) {
+      File emptyJar = new File(emptyJarDirectory, "empty" + i + ".jar");
+      new JarOutputStream(new FileOutputStream(emptyJar), new Manifest()).close();
+      List<String> jarList = new ArrayList<String>(sdkJars);
+      jarList.add(emptyJar.getPath());
+      uncachedJarLists.add(jarList);
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void closeReleasedClassLoaders() {
+    CompilerLoader.closeReleasedClassLoaders();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    CompilerLoader.closeReleasedClassLoaders();
+    FileUtil.delete(emptyJarDirectory);
+  }
+
+  @Benchmark
+  public Jooc loadJoocCached() throws Exception {
+    return CompilerLoader.loadJooc(sdkJars);
+  }
+
+  @Benchmark
+  public Jooc loadJoocUncached() throws Exception {
+    List<String> jarList = uncachedJarLists.get(nextUncachedJarList);
+    nextUncachedJarList = (nextUncachedJarList + 1) % uncachedJarLists.size();
+    return CompilerLoader.loadJooc(jarList);
+  }
+
+}
@@ -0,0 +1,82 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies a batch of dirty paths by source root, comparing {@link SourceRootIndex} to testing every root
+ * with {@link FileUtil#isAncestor(File, File, boolean)}, the approach it replaced. Paths need not exist.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SourceRootIndexBenchmark {
+
+  @Param("50000")
+  public int dirtyPaths;
+
+  @Param({"10", "100", "1000"})
+  public int roots;
+
+  private List<File> rootFiles;
+  private List<File> dirtyFiles;
+  private SourceRootIndex sourceRootIndex;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    File workspace = new File(FileUtil.getTempDirectory(), "jangaroo-benchmark-workspace");
+    rootFiles = new ArrayList<File>(roots);
+    for (int i = 0; i < roots; i++) {
+      rootFiles.add(new File(workspace, "module" + i + "/src/main/joo"));
+    }
+    Random random = new Random(42);
+    dirtyFiles = new ArrayList<File>(dirtyPaths);
+    for (int i = 0; i < dirtyPaths; i++) {
+      // every tenth path lies outside of all source roots, e.g. in a resource directory:
+      File moduleDirectory = new File(workspace, "module" + random.nextInt(roots));
+      File directory = i % 10 == 0 ? new File(moduleDirectory, "src/main/resources") : new File(moduleDirectory, "src/main/joo");
+      dirtyFiles.add(new File(directory, "net/jangaroo/package" + random.nextInt(20) + "/Class" + i + ".as"));
+    }
+    sourceRootIndex = new SourceRootIndex(rootFiles);
+  }
+
+  @Benchmark
+  public int classifyWithIndex() {
+    int underSourceRoot = 0;
+    for (File dirtyFile : dirtyFiles) {
+      if (sourceRootIndex.getRoot(dirtyFile) != null) {
+        ++underSourceRoot;
+      }
+    }
+    return underSourceRoot;
+  }
+
+  @Benchmark
+  public int classifyByScanningRoots() {
+    int underSourceRoot = 0;
+    for (File dirtyFile : dirtyFiles) {
+      for (File root : rootFiles) {
+        if (FileUtil.isAncestor(root, dirtyFile, false)) {
+          ++underSourceRoot;
+          break;
+        }
+      }
+    }
+    return underSourceRoot;
+  }
+
+}
@@ -0,0 +1,220 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import net.jangaroo.jooc.api.Jooc;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent per-target fingerprints of the public API of all classes compiled by a Jangaroo build target.
+ * A class's fingerprint is the hash of its generated <code>joo-api</code> stub, or of its source if
+ * no stub is generated (e.g. for test targets), so that implementation-only changes keep the fingerprint stable.
+ * <p>
+ * As a downstream target, it also remembers the fingerprints of the upstream classes it referenced
+ * when it was last compiled, so that it only needs to recompile anything when these actually change.
+ */
+public class JangarooApiFingerprints {
+
+  private static final String FINGERPRINTS_FILE_NAME = "jangaroo-api-fingerprints.dat";
+  private static final int VERSION = 1;
+  private static final Logger LOG = Logger.getInstance(JangarooApiFingerprints.class);
+
+  private final File fingerprintsFile;
+  private final Map<String, String> fingerprintByClass = new HashMap<String, String>();
+  private final Map<String, String> upstreamDigestByTargetId = new HashMap<String, String>();
+  private final Map<String, Map<String, String>> upstreamFingerprintsByTargetId = new HashMap<String, Map<String, String>>();
+  private String digest;
+  private boolean modified = false;
+
+  private JangarooApiFingerprints(File fingerprintsFile) {
+    this.fingerprintsFile = fingerprintsFile;
+  }
+
+  @NotNull
+  public static JangarooApiFingerprints load(@NotNull BuildDataPaths dataPaths, @NotNull JangarooBuildTarget target) {
+    return load(new File(dataPaths.getTargetDataRoot(target), FINGERPRINTS_FILE_NAME));
+  }
+
+  @NotNull
+  static JangarooApiFingerprints load(@NotNull File fingerprintsFile) {
+    JangarooApiFingerprints fingerprints = new JangarooApiFingerprints(fingerprintsFile);
+    if (fingerprints.fingerprintsFile.exists()) {
+      try {
+        fingerprints.read();
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo API fingerprints " + fingerprints.fingerprintsFile + ", starting from scratch.", e);
+        fingerprints.clear();
+      }
+    }
+    return fingerprints;
+  }
+
+  /**
+   * Compute the API fingerprint of a class from its API stub, falling back to its source file.
+   */
+  @Nullable
+  public static String computeFingerprint(@Nullable File apiOutputDirectory, @NotNull String qualifiedClassName, @NotNull File sourceFile) {
+    try {
+      if (apiOutputDirectory != null) {
+        File apiStub = getApiStub(apiOutputDirectory, qualifiedClassName);
+        if (apiStub.isFile()) {
+          return DigestUtils.hash(apiStub);
+        }
+      }
+      return sourceFile.isFile() ? DigestUtils.hash(sourceFile) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  @NotNull
+  public static File getApiStub(@NotNull File apiOutputDirectory, @NotNull String qualifiedClassName) {
+    return new File(apiOutputDirectory, qualifiedClassName.replace('.', File.separatorChar) + Jooc.AS_SUFFIX);
+  }
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fingerprintsFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      readMap(in, fingerprintByClass);
+      int upstreamCount = in.readInt();
+      for (int i = 0; i < upstreamCount; i++) {
+        String targetId = in.readUTF();
+        upstreamDigestByTargetId.put(targetId, in.readUTF());
+        Map<String, String> upstreamFingerprints = new HashMap<String, String>();
+        readMap(in, upstreamFingerprints);
+        upstreamFingerprintsByTargetId.put(targetId, upstreamFingerprints);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void readMap(DataInputStream in, Map<String, String> map) throws IOException {
+    int size = in.readInt();
+    for (int i = 0; i < size; i++) {
+      map.put(in.readUTF(), in.readUTF());
+    }
+  }
+
+  public synchronized void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    FileUtil.createParentDirs(fingerprintsFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fingerprintsFile)));
+    try {
+      out.writeInt(VERSION);
+      writeMap(out, fingerprintByClass);
+      out.writeInt(upstreamDigestByTargetId.size());
+      for (Map.Entry<String, String> entry : upstreamDigestByTargetId.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+        Map<String, String> upstreamFingerprints = upstreamFingerprintsByTargetId.get(entry.getKey());
+        writeMap(out, upstreamFingerprints == null ? Collections.<String, String>emptyMap() : upstreamFingerprints);
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<String, String> entry : map.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeUTF(entry.getValue());
+    }
+  }
+
+  public synchronized void clear() {
+    fingerprintByClass.clear();
+    upstreamDigestByTargetId.clear();
+    upstreamFingerprintsByTargetId.clear();
+    digest = null;
+    modified = true;
+  }
+
+  @NotNull
+  public synchronized Map<String, String> getFingerprints() {
+    return new HashMap<String, String>(fingerprintByClass);
+  }
+
+  public synchronized boolean isEmpty() {
+    return fingerprintByClass.isEmpty();
+  }
+
+  @Nullable
+  public synchronized String getFingerprint(@NotNull String qualifiedClassName) {
+    return fingerprintByClass.get(qualifiedClassName);
+  }
+
+  /**
+   * Set the fingerprint of the given class, or remove it if <code>fingerprint</code> is <code>null</code>.
+   * @return whether the fingerprint changed
+   */
+  public synchronized boolean update(@NotNull String qualifiedClassName, @Nullable String fingerprint) {
+    String oldFingerprint = fingerprint == null ? fingerprintByClass.remove(qualifiedClassName)
+      : fingerprintByClass.put(qualifiedClassName, fingerprint);
+    boolean changed = fingerprint == null ? oldFingerprint != null : !fingerprint.equals(oldFingerprint);
+    if (changed) {
+      digest = null;
+      modified = true;
+    }
+    return changed;
+  }
+
+  /**
+   * A digest over all class fingerprints of this target, which changes iff any class's public API changes.
+   */
+  @NotNull
+  public synchronized String getDigest() {
+    if (digest == null) {
+      MessageDigest messageDigest = DigestUtils.createDigest();
+      for (Map.Entry<String, String> entry : new TreeMap<String, String>(fingerprintByClass).entrySet()) {
+        DigestUtils.update(messageDigest, entry.getKey());
+        DigestUtils.update(messageDigest, entry.getValue());
+      }
+      digest = DigestUtils.toHex(messageDigest.digest());
+    }
+    return digest;
+  }
+
+  @Nullable
+  public synchronized String getUpstreamDigest(@NotNull String upstreamTargetId) {
+    return upstreamDigestByTargetId.get(upstreamTargetId);
+  }
+
+  @NotNull
+  public synchronized Map<String, String> getUpstreamFingerprints(@NotNull String upstreamTargetId) {
+    Map<String, String> upstreamFingerprints = upstreamFingerprintsByTargetId.get(upstreamTargetId);
+    return upstreamFingerprints == null ? Collections.<String, String>emptyMap() : upstreamFingerprints;
+  }
+
+  public synchronized void rememberUpstream(@NotNull String upstreamTargetId, @NotNull String upstreamDigest,
+                                            @NotNull Map<String, String> referencedUpstreamFingerprints) {
+    upstreamDigestByTargetId.put(upstreamTargetId, upstreamDigest);
+    upstreamFingerprintsByTargetId.put(upstreamTargetId, referencedUpstreamFingerprints);
+    modified = true;
+  }
+
+}
@@ -0,0 +1,326 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.JpsCompileLog;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed cache of Jangaroo compile outputs on local disk, which can be shared between
+ * git worktrees and survives branch switches. An entry holds the JavaScript output, source map and
+ * API stub generated for one source file as well as the compiler warnings issued for it, keyed by a hash over the source, the API fingerprints of
+ * all classes it references, the output-relevant compiler settings and the Jangaroo SDK and library jars.
+ * Entries are restored through hard links (falling back to copies), replacing only outputs whose content
+ * changed, and evicted least-recently-used when the cache exceeds its size limit.
+ * <p>
+ * The cache is enabled by setting the build process system property <code>jangaroo.buildCache.dir</code>;
+ * its size limit in megabytes is <code>jangaroo.buildCache.maxSizeMB</code> (default 2048).
+ */
+public class JangarooBuildCache {
+
+  public static final String CACHE_DIRECTORY_PROPERTY = "jangaroo.buildCache.dir";
+  public static final String MAX_SIZE_PROPERTY = "jangaroo.buildCache.maxSizeMB";
+  /**
+   * The version of the entry format, to be included in all keys.
+   */
+  public static final int VERSION = 2;
+
+  private static final Logger LOG = Logger.getInstance(JangarooBuildCache.class);
+  private static final String MANIFEST_FILE_NAME = "manifest";
+  private static final String WARNINGS_FILE_NAME = "warnings";
+  private static final String OUTPUT_PREFIX = "out";
+  private static final String API_PREFIX = "api";
+  private static final String UTF_8 = "UTF-8";
+
+  private final File cacheDirectory;
+  private final long maxSize;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+
+  JangarooBuildCache(File cacheDirectory, long maxSize) {
+    this.cacheDirectory = cacheDirectory;
+    this.maxSize = maxSize;
+  }
+
+  @Nullable
+  public static JangarooBuildCache create() {
+    String cacheDirectoryPath = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    if (cacheDirectoryPath == null || cacheDirectoryPath.trim().isEmpty()) {
+      return null;
+    }
+    long maxSizeMB = Long.getLong(MAX_SIZE_PROPERTY, 2048L);
+    return new JangarooBuildCache(new File(cacheDirectoryPath.trim()), maxSizeMB * 1024 * 1024);
+  }
+
+  private File getEntryDirectory(String key) {
+    return new File(new File(cacheDirectory, key.substring(0, 2)), key);
+  }
+
+  /**
+   * Restore the cached outputs for the given key into the output directories. Like {@link JangarooOutputSink},
+   * only outputs whose content differs from the existing file are replaced, so that unchanged outputs keep
+   * their timestamps.
+   * @param changedOutputs receives the restored output files whose content changed
+   * @param warnings receives the compiler warnings issued for the source file
+   * @return all restored output files, or <code>null</code> on a cache miss
+   */
+  @Nullable
+  public List<File> restore(@NotNull String key, @NotNull File outputDirectory, @Nullable File apiOutputDirectory,
+                            @NotNull Collection<File> changedOutputs, @NotNull Collection<JpsCompileLog.Warning> warnings) {
+    File entryDirectory = getEntryDirectory(key);
+    File manifestFile = new File(entryDirectory, MANIFEST_FILE_NAME);
+    if (!manifestFile.isFile()) {
+      misses.incrementAndGet();
+      return null;
+    }
+    try {
+      List<JpsCompileLog.Warning> restoredWarnings = readWarnings(new File(entryDirectory, WARNINGS_FILE_NAME));
+      List<File> restoredOutputs = new ArrayList<File>();
+      List<File> restoredChangedOutputs = new ArrayList<File>();
+      for (String line : readLines(manifestFile)) {
+        int separator = line.indexOf('\t');
+        String prefix = line.substring(0, separator);
+        String relativePath = line.substring(separator + 1);
+        File targetDirectory = OUTPUT_PREFIX.equals(prefix) ? outputDirectory : apiOutputDirectory;
+        if (targetDirectory != null) {
+          File target = new File(targetDirectory, FileUtil.toSystemDependentName(relativePath));
+          File cachedFile = new File(new File(entryDirectory, prefix), FileUtil.toSystemDependentName(relativePath));
+          boolean changed = !JangarooOutputSink.hasSameContent(cachedFile, target);
+          if (changed) {
+            linkOrCopy(cachedFile, target);
+          }
+          if (OUTPUT_PREFIX.equals(prefix)) {
+            restoredOutputs.add(target);
+            if (changed) {
+              restoredChangedOutputs.add(target);
+            }
+          }
+        }
+      }
+      changedOutputs.addAll(restoredChangedOutputs);
+      warnings.addAll(restoredWarnings);
+      //noinspection ResultOfMethodCallIgnored
+      entryDirectory.setLastModified(System.currentTimeMillis());
+      hits.incrementAndGet();
+      return restoredOutputs;
+    } catch (IOException e) {
+      LOG.warn("Could not restore Jangaroo build cache entry " + entryDirectory + ".", e);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Store the outputs generated and the warnings issued for one source file under the given key. The files
+   * are copied, so that later in-place updates of the outputs can never corrupt the cache.
+   */
+  public void store(@NotNull String key, @NotNull File outputDirectory, @NotNull Collection<File> outputFiles,
+                    @Nullable File apiOutputDirectory, @Nullable File apiStub, @NotNull List<JpsCompileLog.Warning> warnings) {
+    File entryDirectory = getEntryDirectory(key);
+    if (entryDirectory.exists()) {
+      return;
+    }
+    File tempDirectory = new File(entryDirectory.getParentFile(), key + ".tmp" + Thread.currentThread().getId());
+    try {
+      List<String> manifest = new ArrayList<String>();
+      for (File outputFile : outputFiles) {
+        if (!addToEntry(tempDirectory, OUTPUT_PREFIX, outputDirectory, outputFile, manifest)) {
+          return;
+        }
+      }
+      if (apiOutputDirectory != null && apiStub != null && apiStub.isFile()) {
+        addToEntry(tempDirectory, API_PREFIX, apiOutputDirectory, apiStub, manifest);
+      }
+      writeWarnings(new File(tempDirectory, WARNINGS_FILE_NAME), warnings);
+      writeLines(new File(tempDirectory, MANIFEST_FILE_NAME), manifest);
+      // rename atomically, so that concurrent builds in other worktrees never see half-written entries:
+      if (!tempDirectory.renameTo(entryDirectory)) {
+        LOG.debug("Jangaroo build cache entry " + entryDirectory + " was created concurrently.");
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not store Jangaroo build cache entry " + entryDirectory + ".", e);
+    } finally {
+      FileUtil.delete(tempDirectory);
+    }
+  }
+
+  private static boolean addToEntry(File entryDirectory, String prefix, File baseDirectory, File file, List<String> manifest) throws IOException {
+    String relativePath = FileUtil.getRelativePath(baseDirectory, file);
+    if (relativePath == null || relativePath.startsWith("..")) {
+      return false;
+    }
+    File cachedFile = new File(new File(entryDirectory, prefix), relativePath);
+    FileUtil.createParentDirs(cachedFile);
+    Files.copy(file.toPath(), cachedFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    manifest.add(prefix + "\t" + FileUtil.toSystemIndependentName(relativePath));
+    return true;
+  }
+
+  private static void linkOrCopy(File source, File target) throws IOException {
+    FileUtil.createParentDirs(target);
+    Files.deleteIfExists(target.toPath());
+    try {
+      Files.createLink(target.toPath(), source.toPath());
+    } catch (IOException e) {
+      // e.g. cache on another file system:
+      Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    } catch (UnsupportedOperationException e) {
+      Files.copy(source.toPath(), target.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+    }
+  }
+
+  /**
+   * Delete least-recently-used entries until the cache is below its size limit.
+   */
+  public void evict() {
+    File[] buckets = cacheDirectory.listFiles();
+    if (buckets == null) {
+      return;
+    }
+    List<File> entries = new ArrayList<File>();
+    for (File bucket : buckets) {
+      File[] bucketEntries = bucket.listFiles();
+      if (bucketEntries != null) {
+        entries.addAll(Arrays.asList(bucketEntries));
+      }
+    }
+    final List<Long> sizes = new ArrayList<Long>(entries.size());
+    long totalSize = 0;
+    for (File entry : entries) {
+      long size = getSize(entry);
+      sizes.add(size);
+      totalSize += size;
+    }
+    if (totalSize <= maxSize) {
+      return;
+    }
+    List<Integer> indexes = new ArrayList<Integer>(entries.size());
+    final long[] lastModified = new long[entries.size()];
+    for (int i = 0; i < entries.size(); i++) {
+      indexes.add(i);
+      lastModified[i] = entries.get(i).lastModified();
+    }
+    Collections.sort(indexes, new Comparator<Integer>() {
+      public int compare(Integer i1, Integer i2) {
+        return Long.compare(lastModified[i1], lastModified[i2]);
+      }
+    });
+    // evict a bit more than necessary, so that not every build has to evict:
+    long targetSize = maxSize * 9 / 10;
+    int evicted = 0;
+    for (Integer index : indexes) {
+      if (totalSize <= targetSize) {
+        break;
+      }
+      FileUtil.delete(entries.get(index));
+      totalSize -= sizes.get(index);
+      evicted++;
+    }
+    LOG.info(String.format("Evicted %d entries from Jangaroo build cache %s.", evicted, cacheDirectory));
+  }
+
+  private static long getSize(File file) {
+    File[] children = file.listFiles();
+    if (children == null) {
+      return file.length();
+    }
+    long size = 0;
+    for (File child : children) {
+      size += getSize(child);
+    }
+    return size;
+  }
+
+  @Nullable
+  public String getReport() {
+    int hitCount = hits.get();
+    int missCount = misses.get();
+    if (hitCount + missCount == 0) {
+      return null;
+    }
+    return String.format("Jangaroo build cache: %d hits, %d misses (%d%% hit rate).",
+      hitCount, missCount, 100 * hitCount / (hitCount + missCount));
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isEmpty()) {
+          lines.add(line);
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    return lines;
+  }
+
+  private static List<JpsCompileLog.Warning> readWarnings(File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      int warningCount = in.readInt();
+      List<JpsCompileLog.Warning> warnings = new ArrayList<JpsCompileLog.Warning>(warningCount);
+      for (int i = 0; i < warningCount; i++) {
+        warnings.add(new JpsCompileLog.Warning(in.readUTF(), in.readInt(), in.readInt()));
+      }
+      return warnings;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeWarnings(File file, List<JpsCompileLog.Warning> warnings) throws IOException {
+    FileUtil.createParentDirs(file);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(warnings.size());
+      for (JpsCompileLog.Warning warning : warnings) {
+        out.writeUTF(warning.getMessage());
+        out.writeInt(warning.getLine());
+        out.writeInt(warning.getColumn());
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeLines(File file, List<String> lines) throws IOException {
+    FileUtil.createParentDirs(file);
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+    try {
+      for (String line : lines) {
+        writer.write(line);
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+}
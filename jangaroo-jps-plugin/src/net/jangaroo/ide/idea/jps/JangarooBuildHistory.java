@@ -0,0 +1,275 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.Utils;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.serialization.JpsModelSerializationDataService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent history of the compile and packaging durations of all Jangaroo build targets of a project,
+ * stored in the JPS data storage root. The build process uses it to start the targets with the longest
+ * downstream chains first; the IDE reads the same file to show the slowest targets and their trends.
+ * <p>
+ * The history of the latest build of each project is also kept in memory, because the build targets are
+ * computed before a build starts, when the data storage root is not yet known. For the first build in a
+ * process, the history is loaded from the data storage root computed from the project location.
+ * All methods are thread-safe.
+ */
+public class JangarooBuildHistory {
+
+  public static final String HISTORY_FILE_NAME = "jangaroo-build-history.dat";
+  private static final int VERSION = 1;
+  private static final int MAX_RECORDS_PER_TARGET = 20;
+  private static final int ESTIMATE_RECORDS = 5;
+  private static final Logger LOG = Logger.getInstance(JangarooBuildHistory.class);
+  private static final ConcurrentMap<String, JangarooBuildHistory> LATEST_BY_PROJECT = new ConcurrentHashMap<String, JangarooBuildHistory>();
+
+  /**
+   * The durations of building one target once.
+   */
+  public static class Record {
+    private final long timestamp;
+    private final long compileMillis;
+    private final long packageMillis;
+    private final int fileCount;
+
+    public Record(long timestamp, long compileMillis, long packageMillis, int fileCount) {
+      this.timestamp = timestamp;
+      this.compileMillis = compileMillis;
+      this.packageMillis = packageMillis;
+      this.fileCount = fileCount;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public long getCompileMillis() {
+      return compileMillis;
+    }
+
+    public long getPackageMillis() {
+      return packageMillis;
+    }
+
+    public long getTotalMillis() {
+      return compileMillis + packageMillis;
+    }
+
+    public int getFileCount() {
+      return fileCount;
+    }
+  }
+
+  private final Map<String, List<Record>> recordsByTargetId = new LinkedHashMap<String, List<Record>>();
+  private final Map<String, Long> pendingPackageMillisByTargetId = new HashMap<String, Long>();
+  private boolean modified = false;
+
+  @NotNull
+  public static JangarooBuildHistory load(@NotNull File dataStorageRoot) {
+    JangarooBuildHistory history = new JangarooBuildHistory();
+    File historyFile = new File(dataStorageRoot, HISTORY_FILE_NAME);
+    if (historyFile.exists()) {
+      try {
+        history.read(historyFile);
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo build history " + historyFile + ", starting a new one.", e);
+        history.recordsByTargetId.clear();
+      }
+    }
+    return history;
+  }
+
+  /**
+   * The history of the latest build of the given project in this process, or <code>null</code> if the
+   * project has not been built yet.
+   */
+  @Nullable
+  public static JangarooBuildHistory getLatest(@NotNull JpsProject project) {
+    return LATEST_BY_PROJECT.get(getProjectKey(project));
+  }
+
+  /**
+   * The history of the latest build of the given project in this process, or else the history stored by
+   * earlier build processes, or <code>null</code> if there is none.
+   */
+  @Nullable
+  public static JangarooBuildHistory getLatestOrStored(@NotNull JpsProject project) {
+    JangarooBuildHistory history = getLatest(project);
+    if (history != null) {
+      return history;
+    }
+    File historyFile = findStoredHistoryFile(project);
+    if (historyFile == null) {
+      return null;
+    }
+    history = load(historyFile.getParentFile());
+    JangarooBuildHistory concurrentlyLoaded = LATEST_BY_PROJECT.putIfAbsent(getProjectKey(project), history);
+    return concurrentlyLoaded == null ? history : concurrentlyLoaded;
+  }
+
+  /**
+   * JPS derives the data storage root from the project path, which is the base directory of directory-based
+   * projects and the <code>.ipr</code> file of file-based projects located in the base directory.
+   */
+  @Nullable
+  private static File findStoredHistoryFile(JpsProject project) {
+    File baseDirectory = JpsModelSerializationDataService.getBaseDirectory(project);
+    if (baseDirectory == null) {
+      return null;
+    }
+    List<File> projectPaths = new ArrayList<File>();
+    projectPaths.add(baseDirectory);
+    File[] projectFiles = baseDirectory.listFiles();
+    if (projectFiles != null) {
+      for (File projectFile : projectFiles) {
+        if (projectFile.getName().endsWith(".ipr")) {
+          projectPaths.add(projectFile);
+        }
+      }
+    }
+    for (File projectPath : projectPaths) {
+      File dataStorageRoot = Utils.getDataStorageRoot(projectPath.getPath());
+      File historyFile = dataStorageRoot == null ? null : new File(dataStorageRoot, HISTORY_FILE_NAME);
+      if (historyFile != null && historyFile.isFile()) {
+        return historyFile;
+      }
+    }
+    return null;
+  }
+
+  public static void setLatest(@NotNull JpsProject project, @NotNull JangarooBuildHistory history) {
+    LATEST_BY_PROJECT.put(getProjectKey(project), history);
+  }
+
+  private static String getProjectKey(JpsProject project) {
+    File baseDirectory = JpsModelSerializationDataService.getBaseDirectory(project);
+    return baseDirectory == null ? project.getName() : baseDirectory.getPath();
+  }
+
+  private void read(File historyFile) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(historyFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      int targetCount = in.readInt();
+      for (int i = 0; i < targetCount; i++) {
+        String targetId = in.readUTF();
+        int recordCount = in.readInt();
+        List<Record> records = new ArrayList<Record>(recordCount);
+        for (int j = 0; j < recordCount; j++) {
+          records.add(new Record(in.readLong(), in.readLong(), in.readLong(), in.readInt()));
+        }
+        recordsByTargetId.put(targetId, records);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public synchronized void save(@NotNull File dataStorageRoot) throws IOException {
+    if (!modified) {
+      return;
+    }
+    File historyFile = new File(dataStorageRoot, HISTORY_FILE_NAME);
+    FileUtil.createParentDirs(historyFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(historyFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(recordsByTargetId.size());
+      for (Map.Entry<String, List<Record>> entry : recordsByTargetId.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (Record record : entry.getValue()) {
+          out.writeLong(record.timestamp);
+          out.writeLong(record.compileMillis);
+          out.writeLong(record.packageMillis);
+          out.writeInt(record.fileCount);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  /**
+   * Remember the packaging duration of the given target, to be included in its next {@link #record}.
+   */
+  public synchronized void recordPackaging(@NotNull String targetId, long packageMillis) {
+    Long pendingPackageMillis = pendingPackageMillisByTargetId.get(targetId);
+    pendingPackageMillisByTargetId.put(targetId, pendingPackageMillis == null ? packageMillis : pendingPackageMillis + packageMillis);
+  }
+
+  /**
+   * Add a record for the given target, attributing the total duration minus the packaging duration
+   * recorded before to compiling.
+   */
+  public synchronized void record(@NotNull String targetId, long totalMillis, int fileCount) {
+    Long packageMillis = pendingPackageMillisByTargetId.remove(targetId);
+    long compileMillis = packageMillis == null ? totalMillis : Math.max(0, totalMillis - packageMillis);
+    List<Record> records = recordsByTargetId.get(targetId);
+    if (records == null) {
+      records = new ArrayList<Record>();
+      recordsByTargetId.put(targetId, records);
+    }
+    records.add(new Record(System.currentTimeMillis(), compileMillis, packageMillis == null ? 0 : packageMillis, fileCount));
+    if (records.size() > MAX_RECORDS_PER_TARGET) {
+      records.subList(0, records.size() - MAX_RECORDS_PER_TARGET).clear();
+    }
+    modified = true;
+  }
+
+  @NotNull
+  public synchronized List<String> getTargetIds() {
+    return new ArrayList<String>(recordsByTargetId.keySet());
+  }
+
+  /**
+   * All records of the given target, oldest first.
+   */
+  @NotNull
+  public synchronized List<Record> getRecords(@NotNull String targetId) {
+    List<Record> records = recordsByTargetId.get(targetId);
+    return records == null ? Collections.<Record>emptyList() : new ArrayList<Record>(records);
+  }
+
+  /**
+   * The expected duration of building the given target, i.e. the average total duration of its latest
+   * builds, or -1 if the target has never been built.
+   */
+  public synchronized long getEstimatedMillis(@NotNull String targetId) {
+    List<Record> records = recordsByTargetId.get(targetId);
+    if (records == null || records.isEmpty()) {
+      return -1;
+    }
+    List<Record> latestRecords = records.subList(Math.max(0, records.size() - ESTIMATE_RECORDS), records.size());
+    long totalMillis = 0;
+    for (Record record : latestRecords) {
+      totalMillis += record.getTotalMillis();
+    }
+    return totalMillis / latestRecords.size();
+  }
+
+}
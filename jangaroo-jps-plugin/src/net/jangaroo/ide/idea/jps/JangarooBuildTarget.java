@@ -2,22 +2,18 @@ package net.jangaroo.ide.idea.jps;
 
 import com.intellij.flex.FlexCommonBundle;
 import com.intellij.flex.FlexCommonUtils;
-import com.intellij.flex.model.JpsFlexProjectLevelCompilerOptionsExtension;
 import com.intellij.flex.model.bc.JpsFlexBCDependencyEntry;
 import com.intellij.flex.model.bc.JpsFlexBuildConfiguration;
 import com.intellij.flex.model.bc.JpsFlexDependencyEntry;
-import com.intellij.flex.model.bc.JpsFlexModuleOrProjectCompilerOptions;
 import com.intellij.flex.model.bc.JpsLibraryDependencyEntry;
 import com.intellij.flex.model.bc.LinkageType;
-import com.intellij.flex.model.bc.impl.JpsFlexBCState;
-import com.intellij.flex.model.bc.impl.JpsFlexCompilerOptionsImpl;
 import com.intellij.flex.model.run.JpsBCBasedRunnerParameters;
 import com.intellij.flex.model.run.JpsFlashRunConfigurationType;
 import com.intellij.flex.model.run.JpsFlexUnitRunConfigurationType;
-import com.intellij.openapi.util.JDOMUtil;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.util.PathUtilRt;
-import com.intellij.util.xmlb.XmlSerializer;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import net.jangaroo.ide.idea.jps.util.SourceRootIndex;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
@@ -35,19 +31,21 @@ import org.jetbrains.jps.model.JpsProject;
 import org.jetbrains.jps.model.java.JavaSourceRootProperties;
 import org.jetbrains.jps.model.java.JavaSourceRootType;
 import org.jetbrains.jps.model.library.JpsLibrary;
-import org.jetbrains.jps.model.library.JpsLibraryRoot;
 import org.jetbrains.jps.model.library.JpsOrderRootType;
+import org.jetbrains.jps.model.module.JpsModule;
 import org.jetbrains.jps.model.module.JpsTypedModuleSourceRoot;
 import org.jetbrains.jps.model.runConfiguration.JpsRunConfigurationType;
 import org.jetbrains.jps.model.runConfiguration.JpsTypedRunConfiguration;
-import org.jetbrains.jps.util.JpsPathUtil;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
   @NotNull
@@ -55,6 +53,24 @@ public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
   @NotNull
   private final String id;
   private final boolean tests;
+  // lazily computed once per JPS model, see JangarooBuildTargetRegistry:
+  private volatile SourceRootIndex sourceRootIndex;
+  private volatile RootDescriptorIndex rootDescriptorIndex;
+  private volatile List<JangarooBuildTarget> dependencyTargets;
+
+  private static class RootDescriptorIndex {
+    private final BuildRootIndex rootIndex;
+    private final Map<String, BuildRootDescriptor> descriptorByRootId = new HashMap<String, BuildRootDescriptor>();
+
+    private RootDescriptorIndex(BuildRootIndex rootIndex, JangarooBuildTarget target) {
+      this.rootIndex = rootIndex;
+      for (BuildRootDescriptor descriptor : rootIndex.getTargetRoots(target, null)) {
+        if (!descriptorByRootId.containsKey(descriptor.getRootId())) {
+          descriptorByRootId.put(descriptor.getRootId(), descriptor);
+        }
+      }
+    }
+  }
 
   private JangarooBuildTarget(@NotNull JpsFlexBuildConfiguration bc, @NotNull String id, boolean tests) {
     super(JangarooBuildTargetType.INSTANCE);
@@ -63,10 +79,18 @@ public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
     this.tests = tests;
   }
 
+  /**
+   * Create a new target instance. To get the interned target of a JPS model, use
+   * {@link JangarooBuildTargetRegistry#getTarget(JpsFlexBuildConfiguration, boolean)} instead.
+   */
   @NotNull
   public static JangarooBuildTarget create(@NotNull JpsFlexBuildConfiguration bc, boolean tests) {
-    String id = FlexCommonUtils.getBuildTargetId(bc.getModule().getName(), bc.getName(), tests);
-    return new JangarooBuildTarget(bc, id, tests);
+    return new JangarooBuildTarget(bc, getId(bc, tests), tests);
+  }
+
+  @NotNull
+  public static String getId(@NotNull JpsFlexBuildConfiguration bc, boolean tests) {
+    return FlexCommonUtils.getBuildTargetId(bc.getModule().getName(), bc.getName(), tests);
   }
 
   @Nullable
@@ -95,18 +119,58 @@ public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
   }
 
   public Collection<BuildTarget<?>> computeDependencies(BuildTargetRegistry targetRegistry, TargetOutputIndex outputIndex) {
-    ArrayList<BuildTarget<?>> result = new ArrayList<BuildTarget<?>>();
-    List<JpsFlexDependencyEntry> entries = bc.getDependencies().getEntries();
-    for (JpsFlexDependencyEntry entry : entries) {
-      if (entry instanceof JpsFlexBCDependencyEntry) {
-        JpsFlexBuildConfiguration dependencyBC = ((JpsFlexBCDependencyEntry)entry).getBC();
-        if (dependencyBC != null) {
-          result.add(create(dependencyBC, entry.getLinkageType() == LinkageType.Test));
+    return new ArrayList<BuildTarget<?>>(getUpstreamTargets());
+  }
+
+  /**
+   * All targets whose classes are on the class path of this target: its dependencies and,
+   * for tests, the production target of the same build configuration. Tests depend on their
+   * production target instead of observing the production source roots, so that production
+   * edits only cause test recompilation when the production API changes.
+   */
+  @NotNull
+  public List<JangarooBuildTarget> getUpstreamTargets() {
+    if (!isTests()) {
+      return getDependencyTargets();
+    }
+    List<JangarooBuildTarget> upstreamTargets = new ArrayList<JangarooBuildTarget>(getDependencyTargets());
+    JangarooBuildTarget productionTarget = JangarooBuildTargetRegistry.getInstance(bc).getTarget(bc, false);
+    if (productionTarget != null) {
+      upstreamTargets.add(productionTarget);
+    }
+    return upstreamTargets;
+  }
+
+  /**
+   * The interned targets of all build configurations this target's build configuration depends on.
+   * Dependencies on modules without a Jangaroo facet are skipped, and a test dependency on a module
+   * without a test target falls back to its production target.
+   */
+  @NotNull
+  public List<JangarooBuildTarget> getDependencyTargets() {
+    List<JangarooBuildTarget> result = dependencyTargets;
+    if (result == null) {
+      JangarooBuildTargetRegistry registry = JangarooBuildTargetRegistry.getInstance(bc);
+      ArrayList<JangarooBuildTarget> targets = new ArrayList<JangarooBuildTarget>();
+      List<JpsFlexDependencyEntry> entries = bc.getDependencies().getEntries();
+      for (JpsFlexDependencyEntry entry : entries) {
+        if (entry instanceof JpsFlexBCDependencyEntry) {
+          JpsFlexBuildConfiguration dependencyBC = ((JpsFlexBCDependencyEntry)entry).getBC();
+          if (dependencyBC != null) {
+            JangarooBuildTarget dependencyTarget = entry.getLinkageType() == LinkageType.Test ? registry.getTarget(dependencyBC, true) : null;
+            if (dependencyTarget == null) {
+              dependencyTarget = registry.getTarget(dependencyBC, false);
+            }
+            if (dependencyTarget != null) {
+              targets.add(dependencyTarget);
+            }
+          }
         }
       }
+      targets.trimToSize();
+      result = Collections.unmodifiableList(targets);
+      dependencyTargets = result;
     }
-
-    result.trimToSize();
     return result;
   }
 
@@ -119,54 +183,65 @@ public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
       File srcRoot = sourceRoot.getFile();
       result.add(new JangarooSourceRootDescriptor(this, srcRoot));
     }
-    if (isTests()) {
-      // add sources to class path, not to source path:
-      Iterable<JpsTypedModuleSourceRoot<JavaSourceRootProperties>> moduleProductionSourceRoots = bc.getModule().getSourceRoots(JavaSourceRootType.SOURCE);
-      for (JpsTypedModuleSourceRoot<JavaSourceRootProperties> sourceRoot : moduleProductionSourceRoots) {
-        result.add(new JangarooSourceRootDescriptor(this, sourceRoot.getFile()));
-      }
-    }
-
-    for (JpsFlexDependencyEntry dependencyEntry : bc.getDependencies().getEntries()) {
-      if (dependencyEntry.getLinkageType() != LinkageType.Test || isTests()) {
-        if (dependencyEntry instanceof JpsFlexBCDependencyEntry) {
-          JpsFlexBuildConfiguration buildConfiguration = ((JpsFlexBCDependencyEntry)dependencyEntry).getBC();
-          if (buildConfiguration != null) {
-            result.add(new JangarooSourceRootDescriptor(this, new File(buildConfiguration.getActualOutputFilePath())));
-          }
-        } else if (dependencyEntry instanceof JpsLibraryDependencyEntry) {
-          JpsLibrary library = ((JpsLibraryDependencyEntry)dependencyEntry).getLibrary();
-          if (library != null) {
-
-            for (JpsLibraryRoot libraryRoot : library.getRoots(JpsOrderRootType.COMPILED)) {
-              result.add(new JangarooSourceRootDescriptor(this, JpsPathUtil.urlToFile(libraryRoot.getUrl())));
-            }
-          }
-        }
-      }
-    }
 
+    // Upstream outputs and library jars are no build roots: changes of upstream targets are detected through
+    // their API fingerprints, changes of library jars through their content hash (see JangarooLibraryFingerprints).
     return result;
   }
 
   public boolean isUnderSourceRoot(File sourceFile) {
-    Iterable<JpsTypedModuleSourceRoot<JavaSourceRootProperties>> sourceRoots = getBC().getModule().getSourceRoots(isTests() ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE);
-    for (JpsTypedModuleSourceRoot<JavaSourceRootProperties> sourceRoot : sourceRoots) {
-      if (FileUtil.isAncestor(sourceRoot.getFile(), sourceFile, false)) {
-        return true;
+    return getSourceRoot(sourceFile) != null;
+  }
+
+  @Nullable
+  public File getSourceRoot(File sourceFile) {
+    return getSourceRootIndex().getRoot(sourceFile);
+  }
+
+  @NotNull
+  private SourceRootIndex getSourceRootIndex() {
+    SourceRootIndex index = sourceRootIndex;
+    if (index == null) {
+      List<File> sourceRootFiles = new ArrayList<File>();
+      Iterable<JpsTypedModuleSourceRoot<JavaSourceRootProperties>> sourceRoots = getBC().getModule().getSourceRoots(isTests() ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE);
+      for (JpsTypedModuleSourceRoot<JavaSourceRootProperties> sourceRoot : sourceRoots) {
+        sourceRootFiles.add(sourceRoot.getFile());
       }
+      index = new SourceRootIndex(sourceRootFiles);
+      sourceRootIndex = index;
     }
-    return false;
+    return index;
+  }
+
+  /**
+   * Derive the fully qualified name of the class defined by the given source file from its
+   * path relative to the source root, or <code>null</code> if it is not under a source root.
+   */
+  @Nullable
+  public String getQualifiedClassName(File sourceFile) {
+    File sourceRoot = getSourceRoot(sourceFile);
+    if (sourceRoot == null) {
+      return null;
+    }
+    String relativePath = FileUtil.getRelativePath(sourceRoot, sourceFile);
+    if (relativePath == null) {
+      return null;
+    }
+    int extensionStart = relativePath.lastIndexOf('.');
+    if (extensionStart > relativePath.lastIndexOf(File.separatorChar)) {
+      relativePath = relativePath.substring(0, extensionStart);
+    }
+    return relativePath.replace(File.separatorChar, '.');
   }
 
   @Nullable
   public BuildRootDescriptor findRootDescriptor(String rootId, BuildRootIndex rootIndex) {
-    for (BuildRootDescriptor descriptor : rootIndex.getTargetRoots(this, null)) {
-      if (descriptor.getRootId().equals(rootId)) {
-        return descriptor;
-      }
+    RootDescriptorIndex index = rootDescriptorIndex;
+    if (index == null || index.rootIndex != rootIndex) {
+      index = new RootDescriptorIndex(rootIndex, this);
+      rootDescriptorIndex = index;
     }
-    return null;
+    return index.descriptorByRootId.get(rootId);
   }
 
   @NotNull
@@ -179,13 +254,71 @@ public class JangarooBuildTarget extends BuildTarget<BuildRootDescriptor> {
     return Collections.singleton(new File(PathUtilRt.getParentPath(bc.getActualOutputFilePath())));
   }
 
+  /**
+   * Write a digest of exactly those settings that affect the output of this target, so that JPS rebuilds
+   * the target when any of them changes, but not when output-neutral settings (like verbosity or whether to
+   * show compiler info messages) change.
+   */
   public void writeConfiguration(ProjectDescriptor pd, PrintWriter out) {
     out.println("id: " + id);
-    out.println(JDOMUtil.writeElement(XmlSerializer.serialize(JpsFlexBCState.getState(bc)), "\n"));
-    JpsFlexModuleOrProjectCompilerOptions moduleOptions = bc.getModule().getProperties().getModuleLevelCompilerOptions();
-    out.println(JDOMUtil.writeElement(XmlSerializer.serialize(((JpsFlexCompilerOptionsImpl)moduleOptions).getState()), "\n"));
-    JpsFlexModuleOrProjectCompilerOptions projectOptions = JpsFlexProjectLevelCompilerOptionsExtension.getProjectLevelCompilerOptions(bc.getModule().getProject());
-    out.println(JDOMUtil.writeElement(XmlSerializer.serialize(((JpsFlexCompilerOptionsImpl)projectOptions).getState()), "\n"));
+    out.println("config: " + computeConfigurationDigest());
+  }
+
+  @NotNull
+  private String computeConfigurationDigest() {
+    MessageDigest digest = DigestUtils.createDigest();
+    DigestUtils.update(digest, bc.getActualOutputFilePath());
+    JpsModule module = bc.getModule();
+    JoocConfigurationBean joocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(module);
+    if (joocConfigurationBean != null) {
+      DigestUtils.update(digest, joocConfigurationBean.jangarooSdkName);
+      DigestUtils.update(digest, String.valueOf(joocConfigurationBean.debugLevel));
+      DigestUtils.update(digest, String.valueOf(joocConfigurationBean.enableAssertions));
+      DigestUtils.update(digest, String.valueOf(joocConfigurationBean.allowDuplicateLocalVariables));
+      DigestUtils.update(digest, joocConfigurationBean.outputPrefix);
+      DigestUtils.update(digest, joocConfigurationBean.outputDirectory);
+      DigestUtils.update(digest, joocConfigurationBean.outputFilePrefix);
+      DigestUtils.update(digest, joocConfigurationBean.apiOutputDirectory);
+      DigestUtils.update(digest, joocConfigurationBean.testOutputDirectory);
+      DigestUtils.update(digest, String.valueOf(joocConfigurationBean.publicApiViolationsMode));
+      DigestUtils.update(digest, joocConfigurationBean.extNamespace);
+      DigestUtils.update(digest, joocConfigurationBean.extSassNamespace);
+      List<String> jarPaths = JangarooBuilder.getJangarooSdkJarPath(joocConfigurationBean, module);
+      if (jarPaths != null) {
+        for (String jarPath : jarPaths) {
+          // identify the jar by its path and time stamp, which is much cheaper than hashing its content:
+          File jarFile = new File(jarPath);
+          DigestUtils.update(digest, jarPath);
+          DigestUtils.update(digest, jarFile.length() + "|" + jarFile.lastModified());
+        }
+      }
+    }
+    for (JpsTypedModuleSourceRoot<JavaSourceRootProperties> sourceRoot : module.getSourceRoots(isTests() ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE)) {
+      DigestUtils.update(digest, sourceRoot.getFile().getPath());
+    }
+    updateNamespaces(digest, bc);
+    for (JpsFlexDependencyEntry entry : bc.getDependencies().getEntries()) {
+      DigestUtils.update(digest, String.valueOf(entry.getLinkageType()));
+      if (entry instanceof JpsFlexBCDependencyEntry) {
+        JpsFlexBuildConfiguration dependencyBC = ((JpsFlexBCDependencyEntry)entry).getBC();
+        if (dependencyBC != null) {
+          DigestUtils.update(digest, getId(dependencyBC, false));
+          updateNamespaces(digest, dependencyBC);
+        }
+      } else if (entry instanceof JpsLibraryDependencyEntry) {
+        JpsLibrary library = ((JpsLibraryDependencyEntry)entry).getLibrary();
+        if (library != null) {
+          for (String rootUrl : library.getRootUrls(JpsOrderRootType.COMPILED)) {
+            DigestUtils.update(digest, rootUrl);
+          }
+        }
+      }
+    }
+    return DigestUtils.toHex(digest.digest());
+  }
+
+  private static void updateNamespaces(MessageDigest digest, JpsFlexBuildConfiguration bc) {
+    DigestUtils.update(digest, bc.getCompilerOptions().getAllOptions().get("compiler.namespaces.namespace"));
   }
 
   public String toString() {
@@ -0,0 +1,128 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.flex.model.bc.JpsFlexBuildConfiguration;
+import com.intellij.flex.model.bc.JpsFlexBuildConfigurationManager;
+import com.intellij.flex.model.module.JpsFlexModuleType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.model.JpsElementChildRole;
+import org.jetbrains.jps.model.JpsModel;
+import org.jetbrains.jps.model.JpsProject;
+import org.jetbrains.jps.model.ex.JpsElementBase;
+import org.jetbrains.jps.model.ex.JpsElementChildRoleBase;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.model.module.JpsTypedModule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All Jangaroo build targets of a JPS model, computed once per model. Only modules with a Jangaroo facet
+ * get targets, and only modules with test source roots get a test target. Target instances are interned,
+ * so that per-target state computed lazily (like source root indexes) is shared by all users of a target.
+ * Modules are resolved by name through a map instead of scanning all modules.
+ * <p>
+ * The registry is attached to the model's project as a child element, so that it is garbage collected
+ * together with its model. The registry of a model is immutable after creation and thus thread-safe.
+ */
+public class JangarooBuildTargetRegistry {
+
+  private static final JpsElementChildRole<RegistryElement> REGISTRY = JpsElementChildRoleBase.create("Jangaroo Build Target Registry");
+  private static final Object LOCK = new Object();
+
+  private final Map<String, JpsModule> moduleByName = new HashMap<String, JpsModule>();
+  private final Map<String, JangarooBuildTarget> targetById = new HashMap<String, JangarooBuildTarget>();
+  private final List<JangarooBuildTarget> allTargets = new ArrayList<JangarooBuildTarget>();
+
+  @NotNull
+  public static JangarooBuildTargetRegistry getInstance(@NotNull JpsModel model) {
+    JpsProject project = model.getProject();
+    synchronized (LOCK) {
+      RegistryElement registryElement = project.getContainer().getChild(REGISTRY);
+      if (registryElement == null || registryElement.model != model) {
+        registryElement = project.getContainer().setChild(REGISTRY, new RegistryElement(model, new JangarooBuildTargetRegistry(model)));
+      }
+      return registryElement.registry;
+    }
+  }
+
+  @NotNull
+  public static JangarooBuildTargetRegistry getInstance(@NotNull JpsFlexBuildConfiguration bc) {
+    return getInstance(bc.getModule().getProject().getModel());
+  }
+
+  private JangarooBuildTargetRegistry(JpsModel model) {
+    for (JpsModule module : model.getProject().getModules()) {
+      moduleByName.put(module.getName(), module);
+    }
+    for (JpsTypedModule<JpsFlexBuildConfigurationManager> module : model.getProject().getModules(JpsFlexModuleType.INSTANCE)) {
+      if (JangarooModelSerializerExtension.getJoocSettings(module) == null) {
+        continue;
+      }
+      boolean hasTests = module.getSourceRoots(JavaSourceRootType.TEST_SOURCE).iterator().hasNext();
+      for (JpsFlexBuildConfiguration bc : module.getProperties().getBuildConfigurations()) {
+        addTarget(JangarooBuildTarget.create(bc, false));
+        if (hasTests) {
+          addTarget(JangarooBuildTarget.create(bc, true));
+        }
+      }
+    }
+  }
+
+  private void addTarget(JangarooBuildTarget target) {
+    targetById.put(target.getId(), target);
+    allTargets.add(target);
+  }
+
+  @NotNull
+  public List<JangarooBuildTarget> getAllTargets() {
+    return Collections.unmodifiableList(allTargets);
+  }
+
+  /**
+   * The interned target for the given build configuration, or <code>null</code> if the target does not exist,
+   * because its module has no Jangaroo facet or, for test targets, no test source roots.
+   */
+  @Nullable
+  public JangarooBuildTarget getTarget(@NotNull JpsFlexBuildConfiguration bc, boolean tests) {
+    return getTarget(JangarooBuildTarget.getId(bc, tests));
+  }
+
+  @Nullable
+  public JangarooBuildTarget getTarget(@NotNull String targetId) {
+    return targetById.get(targetId);
+  }
+
+  @Nullable
+  public JpsModule findModule(@NotNull String moduleName) {
+    return moduleByName.get(moduleName);
+  }
+
+  private static class RegistryElement extends JpsElementBase<RegistryElement> {
+    private final JpsModel model;
+    private final JangarooBuildTargetRegistry registry;
+
+    private RegistryElement(JpsModel model, JangarooBuildTargetRegistry registry) {
+      this.model = model;
+      this.registry = registry;
+    }
+
+    /**
+     * A copy belongs to another model, which does not match, so that the copied model computes its own registry.
+     */
+    @NotNull
+    @Override
+    public RegistryElement createCopy() {
+      return new RegistryElement(model, registry);
+    }
+
+    @Override
+    public void applyChanges(@NotNull RegistryElement modified) {
+    }
+  }
+
+}
@@ -1,9 +1,7 @@
 package net.jangaroo.ide.idea.jps;
 
 import com.intellij.flex.FlexCommonUtils;
-import com.intellij.flex.model.bc.JpsFlexBuildConfiguration;
 import com.intellij.flex.model.bc.JpsFlexBuildConfigurationManager;
-import com.intellij.flex.model.module.JpsFlexModuleType;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Trinity;
 import org.jetbrains.annotations.NotNull;
@@ -13,10 +11,13 @@ import org.jetbrains.jps.builders.BuildTargetType;
 import org.jetbrains.jps.model.JpsElement;
 import org.jetbrains.jps.model.JpsModel;
 import org.jetbrains.jps.model.module.JpsModule;
-import org.jetbrains.jps.model.module.JpsTypedModule;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JangarooBuildTargetType extends BuildTargetType<JangarooBuildTarget> {
   public static final JangarooBuildTargetType INSTANCE = new JangarooBuildTargetType();
@@ -26,17 +27,87 @@ public class JangarooBuildTargetType extends BuildTargetType<JangarooBuildTarget
     super("jangaroo");
   }
 
+  /**
+   * All Jangaroo build targets, ordered so that targets heading the longest downstream chains come first.
+   * JPS builds targets in dependency order anyway; the order within that is only a hint, as JPS does not
+   * guarantee to start ready targets in the order listed here. Where it does, long chains start early
+   * instead of finishing last while other cores are idle.
+   * Chain lengths are estimated from the build history of the latest build in this process, or else from
+   * the build history stored in the project's data storage root, if any.
+   */
   @NotNull
   public List<JangarooBuildTarget> computeAllTargets(@NotNull JpsModel model) {
-    List<JangarooBuildTarget> result = new ArrayList<JangarooBuildTarget>();
-    for (JpsTypedModule<JpsFlexBuildConfigurationManager> module : model.getProject().getModules(JpsFlexModuleType.INSTANCE)) {
-      List<JpsFlexBuildConfiguration> buildConfigurations = module.getProperties().getBuildConfigurations();
-      for (JpsFlexBuildConfiguration bc : buildConfigurations) {
-        result.add(JangarooBuildTarget.create(bc, false));
-        result.add(JangarooBuildTarget.create(bc, true)); // TODO: only if there are any tests?
+    List<JangarooBuildTarget> targets = new ArrayList<JangarooBuildTarget>(JangarooBuildTargetRegistry.getInstance(model).getAllTargets());
+    JangarooBuildHistory buildHistory = JangarooBuildHistory.getLatestOrStored(model.getProject());
+    if (buildHistory != null) {
+      orderByCriticalPath(targets, buildHistory);
+    }
+    return targets;
+  }
+
+  private static void orderByCriticalPath(List<JangarooBuildTarget> targets, JangarooBuildHistory buildHistory) {
+    Map<JangarooBuildTarget, List<JangarooBuildTarget>> dependentsByTarget = new HashMap<JangarooBuildTarget, List<JangarooBuildTarget>>();
+    Map<JangarooBuildTarget, Long> estimatedMillisByTarget = new HashMap<JangarooBuildTarget, Long>();
+    long knownMillis = 0;
+    int knownCount = 0;
+    for (JangarooBuildTarget target : targets) {
+      for (JangarooBuildTarget upstreamTarget : target.getUpstreamTargets()) {
+        List<JangarooBuildTarget> dependents = dependentsByTarget.get(upstreamTarget);
+        if (dependents == null) {
+          dependents = new ArrayList<JangarooBuildTarget>();
+          dependentsByTarget.put(upstreamTarget, dependents);
+        }
+        dependents.add(target);
+      }
+      long estimatedMillis = buildHistory.getEstimatedMillis(target.getId());
+      if (estimatedMillis >= 0) {
+        estimatedMillisByTarget.put(target, estimatedMillis);
+        knownMillis += estimatedMillis;
+        ++knownCount;
+      }
+    }
+    if (knownCount == 0) {
+      return;
+    }
+    // targets never built before are assumed to take average time:
+    long defaultMillis = knownMillis / knownCount;
+    final Map<JangarooBuildTarget, Long> chainMillisByTarget = new HashMap<JangarooBuildTarget, Long>();
+    for (JangarooBuildTarget target : targets) {
+      computeChainMillis(target, dependentsByTarget, estimatedMillisByTarget, defaultMillis, chainMillisByTarget);
+    }
+    // stable, so that targets without history keep their relative order:
+    Collections.sort(targets, new Comparator<JangarooBuildTarget>() {
+      public int compare(JangarooBuildTarget target1, JangarooBuildTarget target2) {
+        return Long.compare(chainMillisByTarget.get(target2), chainMillisByTarget.get(target1));
       }
+    });
+  }
+
+  /**
+   * The estimated duration of the given target plus its longest chain of (transitive) dependents.
+   */
+  private static long computeChainMillis(JangarooBuildTarget target,
+                                         Map<JangarooBuildTarget, List<JangarooBuildTarget>> dependentsByTarget,
+                                         Map<JangarooBuildTarget, Long> estimatedMillisByTarget, long defaultMillis,
+                                         Map<JangarooBuildTarget, Long> chainMillisByTarget) {
+    Long chainMillis = chainMillisByTarget.get(target);
+    if (chainMillis != null) {
+      return chainMillis;
     }
-    return result;
+    // guard against dependency cycles:
+    chainMillisByTarget.put(target, 0L);
+    long maxDependentChainMillis = 0;
+    List<JangarooBuildTarget> dependents = dependentsByTarget.get(target);
+    if (dependents != null) {
+      for (JangarooBuildTarget dependent : dependents) {
+        maxDependentChainMillis = Math.max(maxDependentChainMillis,
+          computeChainMillis(dependent, dependentsByTarget, estimatedMillisByTarget, defaultMillis, chainMillisByTarget));
+      }
+    }
+    Long estimatedMillis = estimatedMillisByTarget.get(target);
+    chainMillis = (estimatedMillis == null ? defaultMillis : estimatedMillis) + maxDependentChainMillis;
+    chainMillisByTarget.put(target, chainMillis);
+    return chainMillis;
   }
 
   @NotNull
@@ -53,27 +124,29 @@ public class JangarooBuildTargetType extends BuildTargetType<JangarooBuildTarget
 
     @Nullable
     public JangarooBuildTarget createTarget(@NotNull String buildTargetId) {
+      JangarooBuildTargetRegistry registry = JangarooBuildTargetRegistry.getInstance(model);
+      JangarooBuildTarget target = registry.getTarget(buildTargetId);
+      if (target != null) {
+        return target;
+      }
       Trinity trinity = FlexCommonUtils.getModuleAndBCNameAndForcedDebugStatusByBuildTargetId(buildTargetId);
       if (trinity != null) {
         String moduleName = (String)trinity.first;
         String bcName = (String)trinity.second;
-        Boolean forcedDebugStatus = (Boolean)trinity.third;
-        for (JpsModule module : model.getProject().getModules()) {
-          if (module.getName().equals(moduleName)) {
-            JpsElement moduleProperties = module.getProperties();
-            if (moduleProperties instanceof JpsFlexBuildConfigurationManager) {
-              JpsFlexBuildConfiguration bc = ((JpsFlexBuildConfigurationManager)moduleProperties).findConfigurationByName(bcName);
-              if (bc != null) {
-                return JangarooBuildTarget.create(bc, forcedDebugStatus == null ? false : forcedDebugStatus);
-              } else {
-                LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Build configuration " + bcName + " not found in module " + moduleName + ".");
-              }
-            } else {
-              LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Module " + moduleName + " found, but it is not a Flex module, but " + module.getModuleType());
-            }
+        JpsModule module = registry.findModule(moduleName);
+        if (module == null) {
+          LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Module " + moduleName + " not found.");
+        } else {
+          JpsElement moduleProperties = module.getProperties();
+          if (!(moduleProperties instanceof JpsFlexBuildConfigurationManager)) {
+            LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Module " + moduleName + " found, but it is not a Flex module, but " + module.getModuleType());
+          } else if (((JpsFlexBuildConfigurationManager)moduleProperties).findConfigurationByName(bcName) == null) {
+            LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Build configuration " + bcName + " not found in module " + moduleName + ".");
+          } else {
+            // module without Jangaroo facet or test target of a module without test sources:
+            LOG.debug("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): No Jangaroo build target in module " + moduleName + ".");
           }
         }
-        LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Module " + moduleName + " not found.");
       } else {
         LOG.warn("JangarooBuildTargetLoader#createTarget(" + buildTargetId + "): Trinity not found.");
       }
@@ -0,0 +1,195 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the phases of a Jangaroo build as Chrome trace events and writes them to a JSON file in the JPS
+ * system directory of the project after the build, which can be opened in <code>chrome://tracing</code> or
+ * Perfetto. Every event carries the build target ID and the thread it ran on, so that the critical path
+ * through a parallel build becomes visible.
+ * <p>
+ * Tracing is disabled by default; enable it by setting the build process system property
+ * <code>jangaroo.buildTrace</code> to <code>true</code>. The latest <code>jangaroo.buildTrace.maxFiles</code> (default 10) trace files are kept.
+ * All methods are thread-safe.
+ */
+public class JangarooBuildTrace {
+
+  public static final String TRACE_DIRECTORY_NAME = "jangaroo-traces";
+
+  private static final Logger LOG = Logger.getInstance(JangarooBuildTrace.class);
+  private static final boolean ENABLED = Boolean.getBoolean("jangaroo.buildTrace");
+  private static final int MAX_FILES = Integer.getInteger("jangaroo.buildTrace.maxFiles", 10);
+  private static final JangarooBuildTrace DISABLED = new JangarooBuildTrace(0);
+
+  private final long startNanos;
+  private final Queue<String> events = new ConcurrentLinkedQueue<String>();
+  private final Map<Long, String> threadNames = new ConcurrentHashMap<Long, String>();
+
+  private JangarooBuildTrace(long startNanos) {
+    this.startNanos = startNanos;
+  }
+
+  @Nullable
+  public static JangarooBuildTrace create() {
+    return ENABLED ? new JangarooBuildTrace(System.nanoTime()) : null;
+  }
+
+  /**
+   * The given trace, or a trace that records nothing if it is <code>null</code>.
+   */
+  @NotNull
+  public static JangarooBuildTrace orDisabled(@Nullable JangarooBuildTrace trace) {
+    return trace == null ? DISABLED : trace;
+  }
+
+  public boolean isEnabled() {
+    return this != DISABLED;
+  }
+
+  /**
+   * Start timing a phase. Pass the result to {@link #record}.
+   */
+  public long start() {
+    return isEnabled() ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Record a phase of the given target that started at the given time and ends now.
+   * @param args alternating argument names and values to attach to the event, e.g. file counts
+   */
+  public void record(@NotNull String phase, @Nullable JangarooBuildTarget target, long phaseStartNanos, Object... args) {
+    if (!isEnabled()) {
+      return;
+    }
+    long endNanos = System.nanoTime();
+    Thread thread = Thread.currentThread();
+    threadNames.put(thread.getId(), thread.getName());
+    StringBuilder event = new StringBuilder(128);
+    event.append("{\"name\":");
+    appendString(event, phase);
+    event.append(",\"cat\":\"jangaroo\",\"ph\":\"X\",\"pid\":1,\"tid\":").append(thread.getId());
+    event.append(",\"ts\":").append(toMicros(phaseStartNanos - startNanos));
+    event.append(",\"dur\":").append(toMicros(endNanos - phaseStartNanos));
+    event.append(",\"args\":{\"target\":");
+    appendString(event, target == null ? null : target.getId());
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      event.append(',');
+      appendString(event, String.valueOf(args[i]));
+      event.append(':');
+      Object value = args[i + 1];
+      if (value instanceof Number || value instanceof Boolean) {
+        event.append(value);
+      } else {
+        appendString(event, value == null ? null : String.valueOf(value));
+      }
+    }
+    event.append("}}");
+    events.add(event.toString());
+  }
+
+  /**
+   * Write all recorded events to a new trace file in the given directory and delete the oldest trace files
+   * beyond the maximum number of files to keep.
+   * @return the trace file, or <code>null</code> if there was nothing to write
+   */
+  @Nullable
+  public File write(@NotNull File traceDirectory) throws IOException {
+    if (!isEnabled() || events.isEmpty()) {
+      return null;
+    }
+    if (!traceDirectory.isDirectory() && !traceDirectory.mkdirs()) {
+      throw new IOException("Cannot create directory " + traceDirectory);
+    }
+    File traceFile = new File(traceDirectory, "build-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".json");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(traceFile), "UTF-8"));
+    try {
+      writer.write("{\"traceEvents\":[\n");
+      boolean first = true;
+      for (Map.Entry<Long, String> threadName : threadNames.entrySet()) {
+        StringBuilder event = new StringBuilder("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+        event.append(threadName.getKey()).append(",\"args\":{\"name\":");
+        appendString(event, threadName.getValue());
+        event.append("}}");
+        first = writeEvent(writer, event.toString(), first);
+      }
+      for (String event : events) {
+        first = writeEvent(writer, event, first);
+      }
+      writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    } finally {
+      writer.close();
+    }
+    deleteOldTraceFiles(traceDirectory);
+    return traceFile;
+  }
+
+  private static boolean writeEvent(Writer writer, String event, boolean first) throws IOException {
+    if (!first) {
+      writer.write(",\n");
+    }
+    writer.write(event);
+    return false;
+  }
+
+  private static void deleteOldTraceFiles(File traceDirectory) {
+    File[] traceFiles = traceDirectory.listFiles();
+    if (traceFiles == null || traceFiles.length <= MAX_FILES) {
+      return;
+    }
+    // file names start with a sortable time stamp:
+    Arrays.sort(traceFiles);
+    for (int i = 0; i < traceFiles.length - MAX_FILES; i++) {
+      if (!FileUtil.delete(traceFiles[i])) {
+        LOG.debug("Could not delete old Jangaroo build trace " + traceFiles[i]);
+      }
+    }
+  }
+
+  private static long toMicros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private static void appendString(StringBuilder json, String value) {
+    if (value == null) {
+      json.append("null");
+      return;
+    }
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': json.append("\\\""); break;
+        case '\\': json.append("\\\\"); break;
+        case '\n': json.append("\\n"); break;
+        case '\r': json.append("\\r"); break;
+        case '\t': json.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            json.append(String.format("\\u%04x", (int)c));
+          } else {
+            json.append(c);
+          }
+      }
+    }
+    json.append('"');
+  }
+
+}
@@ -6,10 +6,14 @@ import com.intellij.flex.model.bc.JpsFlexDependencyEntry;
 import com.intellij.flex.model.bc.JpsLibraryDependencyEntry;
 import com.intellij.flex.model.bc.LinkageType;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
+import net.jangaroo.ide.idea.jps.util.ClassReferenceScanner;
 import net.jangaroo.ide.idea.jps.util.CompilerLoader;
-import net.jangaroo.ide.idea.jps.util.IdeaFileUtils;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import net.jangaroo.ide.idea.jps.util.JoocPool;
 import net.jangaroo.ide.idea.jps.util.JpsCompileLog;
 import net.jangaroo.jooc.api.CompilationResult;
 import net.jangaroo.jooc.api.CompileLog;
@@ -26,6 +30,7 @@ import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.BuildRootDescriptor;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
 import org.jetbrains.jps.builders.FileProcessor;
+import org.jetbrains.jps.builders.storage.SourceToOutputMapping;
 import org.jetbrains.jps.incremental.CompileContext;
 import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.ProjectBuildException;
@@ -49,26 +54,64 @@ import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Jangaroo analog of {@link org.jetbrains.jps.incremental.java.JavaBuilder}.
  * However, it seems that non-Java-languages need to implement TargetBuilder, not ModuleLevelBuilder,
  * since the latter does not seem to be work for Flex build configurations.
+ * <p>
+ * Concurrency contract: JPS may call {@link #build} for independent {@link JangarooBuildTarget}s
+ * concurrently ("compile independent modules in parallel"). Therefore, the builder itself is stateless;
+ * per-build state is kept in thread-safe maps stored in the {@link CompileContext}. Per-target state
+ * (dependency index, API fingerprints) is only written by the thread building that target and only read
+ * by downstream targets, which JPS builds strictly after their dependencies. Class loaders of a Jangaroo
+ * SDK are shared by all threads, but every compile uses its own {@link Jooc} instance, which is never used
+ * by two threads at a time (see {@link JoocPool}). For Jangaroo SDKs whose compiler is not thread-safe,
+ * concurrent compiler runs can be serialized by setting the system property
+ * <code>jangaroo.parallelCompilation=false</code> for the build process.
  */
 public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, JangarooBuildTarget> {
 
   public static final String BUILDER_NAME = "jooc";
+  /**
+   * Builder parameter that, set to <code>true</code>, makes all Jangaroo targets of the build check-only,
+   * like the facet option {@link JoocConfigurationBean#checkOnly}. The IDE passes the user data of the
+   * compile scope as builder parameters.
+   */
+  public static final String CHECK_ONLY_PARAMETER = "jangaroo.checkOnly";
 
   public static final FileFilter AS_SOURCES_FILTER = createJangarooSourceFileFilter();
   private final Logger log = Logger.getInstance(JangarooBuilder.class);
 
+  private static final boolean PARALLEL_COMPILATION = !"false".equals(System.getProperty("jangaroo.parallelCompilation"));
+  private static final Object SERIAL_COMPILATION_LOCK = new Object();
+
+  private static final Key<ConcurrentMap<String, JangarooApiFingerprints>> API_FINGERPRINTS_BY_TARGET_ID = Key.create("jangaroo.apiFingerprintsByTargetId");
+  private static final Key<Set<String>> FAILED_TARGET_IDS = Key.create("jangaroo.failedTargetIds");
+  private static final Key<JangarooBuildCache> BUILD_CACHE = Key.create("jangaroo.buildCache");
+  private static final Key<JangarooModelCache> MODEL_CACHE = Key.create("jangaroo.modelCache");
+  private static final Key<JangarooBuildTrace> BUILD_TRACE = Key.create("jangaroo.buildTrace");
+  private static final Key<JangarooBuildHistory> BUILD_HISTORY = Key.create("jangaroo.buildHistory");
+  private static final String SOURCE_MAP_SUFFIX = ".map";
+  private static final String CHECK_OUTPUT_DIRECTORY_NAME = "jangaroo-check-output";
+  private static final String STAGING_DIRECTORY_NAME = "jangaroo-staged-output";
+  private static final String FILE_HASHES_FILE_NAME = "jangaroo-file-hashes.dat";
+
   public static FileFilter createSuffixFileFilter(final String suffix) {
     return SystemInfo.isFileSystemCaseSensitive?
     new FileFilter() {
@@ -103,18 +146,389 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
     super(Collections.singletonList(JangarooBuildTargetType.INSTANCE));
   }
 
+  @Override
+  public void buildStarted(CompileContext context) {
+    context.putUserData(API_FINGERPRINTS_BY_TARGET_ID, new ConcurrentHashMap<String, JangarooApiFingerprints>());
+    context.putUserData(FAILED_TARGET_IDS, Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>()));
+    context.putUserData(BUILD_CACHE, JangarooBuildCache.create());
+    context.putUserData(MODEL_CACHE, new JangarooModelCache());
+    context.putUserData(BUILD_TRACE, JangarooBuildTrace.create());
+    // hashes of library and SDK jars, so that a new build process does not read them all again:
+    DigestUtils.readHashCache(new File(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot(), FILE_HASHES_FILE_NAME));
+    JangarooBuildHistory buildHistory = JangarooBuildHistory.load(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot());
+    context.putUserData(BUILD_HISTORY, buildHistory);
+    JangarooBuildHistory.setLatest(context.getProjectDescriptor().getProject(), buildHistory);
+  }
+
+  @Override
+  public void buildFinished(CompileContext context) {
+    JangarooBuildCache buildCache = context.getUserData(BUILD_CACHE);
+    if (buildCache != null) {
+      String report = buildCache.getReport();
+      if (report != null) {
+        context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.INFO, report));
+      }
+      buildCache.evict();
+    }
+    String classLoaderReport = CompilerLoader.closeReleasedClassLoaders();
+    JoocPool.purge();
+    if (classLoaderReport != null) {
+      context.processMessage(new CompilerMessage(BUILDER_NAME, BuildMessage.Kind.INFO, classLoaderReport));
+    }
+    writeBuildTrace(context);
+    try {
+      DigestUtils.writeHashCache(new File(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot(), FILE_HASHES_FILE_NAME));
+    } catch (IOException e) {
+      log.warn("Could not save Jangaroo file hashes.", e);
+    }
+    JangarooBuildHistory buildHistory = context.getUserData(BUILD_HISTORY);
+    if (buildHistory != null) {
+      try {
+        buildHistory.save(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot());
+      } catch (IOException e) {
+        log.warn("Could not save Jangaroo build history.", e);
+      }
+    }
+  }
+
+  private void writeBuildTrace(CompileContext context) {
+    JangarooBuildTrace trace = context.getUserData(BUILD_TRACE);
+    if (trace != null) {
+      File traceDirectory = new File(context.getProjectDescriptor().dataManager.getDataPaths().getDataStorageRoot(),
+        JangarooBuildTrace.TRACE_DIRECTORY_NAME);
+      try {
+        File traceFile = trace.write(traceDirectory);
+        if (traceFile != null) {
+          log.info("Jangaroo build trace written to " + traceFile.getPath());
+        }
+      } catch (IOException e) {
+        log.warn("Could not write Jangaroo build trace to " + traceDirectory, e);
+      }
+    }
+  }
+
+  @NotNull
+  private static JangarooBuildTrace getTrace(CompileContext context) {
+    return JangarooBuildTrace.orDisabled(context.getUserData(BUILD_TRACE));
+  }
+
   @Override
   public void build(@NotNull JangarooBuildTarget target, @NotNull DirtyFilesHolder<BuildRootDescriptor, JangarooBuildTarget> dirtyFilesHolder, @NotNull BuildOutputConsumer outputConsumer, @NotNull CompileContext context) throws ProjectBuildException, IOException {
+    JangarooBuildTrace trace = getTrace(context);
+    long buildStart = trace.start();
+    // staged output left behind by an interrupted build:
+    FileUtil.delete(getStagingDirectory(context, target));
     // now, build ActionScript and MXML files:
     final List<File> filesToCompile = getFilesToCompile(target, AS_SOURCES_FILTER, dirtyFilesHolder);
-    if (!filesToCompile.isEmpty()) {
-      JpsCompileLog compileLog = new JpsCompileLog(BUILDER_NAME, context);
-      compile(context, outputConsumer, filesToCompile, compileLog, target);
+    JangarooDependencyIndex dependencyIndex = JangarooDependencyIndex.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+    JangarooApiFingerprints apiFingerprints = getApiFingerprints(context, target);
+    JangarooDiagnosticsStore diagnosticsStore = JangarooDiagnosticsStore.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+    JangarooPendingSources pendingSources = JangarooPendingSources.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+    if (context.getScope().isBuildForced(target)) {
+      dependencyIndex.clear();
+      apiFingerprints.clear();
+      diagnosticsStore.clear();
+      pendingSources.clear();
+    }
+    boolean checkOnly = isCheckOnly(context, target);
+    if (!checkOnly) {
+      // sources compiled in check-only mode still lack their output, and JPS does not retry sources it did not consider dirty:
+      Set<File> dirtyFiles = new HashSet<File>(filesToCompile);
+      for (File pendingSource : pendingSources.getSourceFiles()) {
+        if (dirtyFiles.add(pendingSource)) {
+          filesToCompile.add(pendingSource);
+        }
+      }
+    }
+    List<File> removedOutputs = processRemovedFiles(context, target, dirtyFilesHolder, filesToCompile, dependencyIndex, apiFingerprints);
+    addUpstreamDependents(context, target, filesToCompile, dependencyIndex, apiFingerprints);
+    trace.record("collectDirtyFiles", target, buildStart, "files", filesToCompile.size(), "removedOutputs", removedOutputs.size());
+    JpsCompileLog compileLog = new JpsCompileLog(BUILDER_NAME, context);
+    try {
+      if (!filesToCompile.isEmpty() || !removedOutputs.isEmpty()) {
+        long compileStart = System.nanoTime();
+        // upstream API changes are remembered as seen by now, so the files affected by them stay pending until compiled successfully:
+        pendingSources.addAll(filesToCompile);
+        if (compile(context, outputConsumer, filesToCompile, removedOutputs, compileLog, target, dependencyIndex, apiFingerprints,
+          diagnosticsStore, pendingSources, checkOnly)) {
+          if (!checkOnly) {
+            pendingSources.clear();
+          }
+        } else {
+          Set<String> failedTargetIds = context.getUserData(FAILED_TARGET_IDS);
+          if (failedTargetIds != null) {
+            failedTargetIds.add(target.getId());
+          }
+        }
+        JangarooBuilderMetrics.getInstance().compileErrors(compileLog.getErrorCount());
+        JangarooBuildHistory buildHistory = context.getUserData(BUILD_HISTORY);
+        if (buildHistory != null) {
+          buildHistory.record(target.getId(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - compileStart), filesToCompile.size());
+        }
+      }
+      // warnings of files not compiled in this build would vanish from the IDE's messages otherwise:
+      long replayStart = trace.start();
+      int replayedCount = diagnosticsStore.replay(compileLog, filesToCompile);
+      trace.record("replayWarnings", target, replayStart, "warnings", replayedCount);
+    } finally {
+      compileLog.flush();
+    }
+    dependencyIndex.save();
+    apiFingerprints.save();
+    diagnosticsStore.save();
+    pendingSources.save();
+    trace.record("build", target, buildStart, "files", filesToCompile.size());
+  }
+
+  private static boolean isCheckOnly(CompileContext context, JangarooBuildTarget target) {
+    if (Boolean.parseBoolean(context.getBuilderParameter(CHECK_ONLY_PARAMETER))) {
+      return true;
+    }
+    JoocConfigurationBean joocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(target.getBC().getModule());
+    return joocConfigurationBean != null && joocConfigurationBean.checkOnly;
+  }
+
+  @NotNull
+  private static JangarooApiFingerprints getApiFingerprints(CompileContext context, JangarooBuildTarget target) {
+    ConcurrentMap<String, JangarooApiFingerprints> apiFingerprintsByTargetId = context.getUserData(API_FINGERPRINTS_BY_TARGET_ID);
+    JangarooApiFingerprints apiFingerprints = apiFingerprintsByTargetId == null ? null : apiFingerprintsByTargetId.get(target.getId());
+    if (apiFingerprints == null) {
+      apiFingerprints = JangarooApiFingerprints.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+      if (apiFingerprintsByTargetId != null) {
+        JangarooApiFingerprints concurrentlyLoaded = apiFingerprintsByTargetId.putIfAbsent(target.getId(), apiFingerprints);
+        if (concurrentlyLoaded != null) {
+          apiFingerprints = concurrentlyLoaded;
+        }
+      }
+    }
+    return apiFingerprints;
+  }
+
+  /**
+   * Clean up after deleted or renamed source files: delete their outputs and API stubs, forget their
+   * API fingerprints and dependencies, and add all files of the target referencing a removed class
+   * to the files to compile, so that they report the missing class or pick up a renamed one.
+   * @return the deleted output files
+   */
+  private static List<File> processRemovedFiles(CompileContext context, JangarooBuildTarget target,
+                                                DirtyFilesHolder<BuildRootDescriptor, JangarooBuildTarget> dirtyFilesHolder,
+                                                List<File> filesToCompile, JangarooDependencyIndex dependencyIndex,
+                                                JangarooApiFingerprints apiFingerprints) throws IOException {
+    List<File> removedOutputs = new ArrayList<File>();
+    Collection<String> removedPaths = dirtyFilesHolder.getRemovedFiles(target);
+    if (removedPaths.isEmpty()) {
+      return removedOutputs;
+    }
+    JoocConfigurationBean joocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(target.getBC().getModule());
+    File apiOutputDirectory = joocConfigurationBean == null || target.isTests() ? null : joocConfigurationBean.getApiOutputDirectory();
+    SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(target);
+    Set<File> allFilesToCompile = new LinkedHashSet<File>(filesToCompile);
+    for (String removedPath : removedPaths) {
+      File removedFile = new File(removedPath);
+      if (!AS_SOURCES_FILTER.accept(removedFile)) {
+        continue;
+      }
+      Collection<String> outputPaths = sourceToOutputMap.getOutputs(removedPath);
+      if (outputPaths != null) {
+        for (String outputPath : outputPaths) {
+          File outputFile = new File(outputPath);
+          FileUtil.delete(outputFile);
+          FileUtil.delete(new File(outputPath + SOURCE_MAP_SUFFIX));
+          removedOutputs.add(outputFile);
+        }
+        sourceToOutputMap.remove(removedPath);
+      }
+      dependencyIndex.remove(removedFile);
+      String className = target.getQualifiedClassName(removedFile);
+      if (className != null) {
+        if (apiOutputDirectory != null) {
+          FileUtil.delete(JangarooApiFingerprints.getApiStub(apiOutputDirectory, className));
+        }
+        apiFingerprints.update(className, null);
+        addDependents(target, dependencyIndex.getDependents(className), allFilesToCompile);
+      }
+    }
+    filesToCompile.clear();
+    filesToCompile.addAll(allFilesToCompile);
+    return removedOutputs;
+  }
+
+  /**
+   * Grow the set of files to compile by all files of the target that reference an upstream class
+   * whose public API changed since this target was last compiled. Upstream targets and library jars
+   * whose overall digest did not change are skipped without looking at single classes.
+   */
+  private void addUpstreamDependents(CompileContext context, JangarooBuildTarget target, List<File> filesToCompile,
+                                     JangarooDependencyIndex dependencyIndex, JangarooApiFingerprints apiFingerprints) {
+    Set<File> allFilesToCompile = new LinkedHashSet<File>(filesToCompile);
+    for (JangarooBuildTarget dependencyTarget : target.getUpstreamTargets()) {
+      JangarooApiFingerprints upstreamFingerprints = getApiFingerprints(context, dependencyTarget);
+      String upstreamDigest = upstreamFingerprints.getDigest();
+      String upstreamTargetId = dependencyTarget.getId();
+      if (!upstreamDigest.equals(apiFingerprints.getUpstreamDigest(upstreamTargetId))) {
+        addChangedDependents(target, upstreamTargetId, upstreamDigest, upstreamFingerprints.getFingerprints(),
+          dependencyIndex, apiFingerprints, allFilesToCompile);
+      }
+    }
+    for (File library : getLibraries(target)) {
+      String libraryId = JangarooLibraryFingerprints.getLibraryId(library);
+      String libraryDigest = context.getUserData(MODEL_CACHE).getLibraryDigest(library);
+      String knownLibraryDigest = apiFingerprints.getUpstreamDigest(libraryId);
+      if (libraryDigest == null || libraryDigest.equals(knownLibraryDigest)) {
+        continue;
+      }
+      Map<String, String> libraryFingerprints;
+      try {
+        libraryFingerprints = JangarooLibraryFingerprints.getFingerprints(library, libraryDigest);
+      } catch (IOException e) {
+        // e.g. a corrupt or half-written jar, so treat it like a library without API stubs:
+        log.warn("Could not read API stubs of Jangaroo library " + library + ", recompiling all its dependents.", e);
+        libraryFingerprints = null;
+      }
+      if (knownLibraryDigest == null) {
+        // first time this target sees the library: a new library dependency changes the build configuration,
+        // which makes JPS rebuild the whole target anyway, so just take the library as the baseline:
+        apiFingerprints.rememberUpstream(libraryId, libraryDigest, libraryFingerprints == null
+          ? Collections.<String, String>emptyMap()
+          : getReferencedFingerprints(libraryFingerprints, dependencyIndex));
+      } else if (libraryFingerprints != null) {
+        addChangedDependents(target, libraryId, libraryDigest, libraryFingerprints,
+          dependencyIndex, apiFingerprints, allFilesToCompile);
+      } else {
+        // no API stubs, so changes cannot be attributed to single classes:
+        addDependents(target, dependencyIndex.getSourceFiles(), allFilesToCompile);
+        apiFingerprints.rememberUpstream(libraryId, libraryDigest, Collections.<String, String>emptyMap());
+      }
+    }
+    filesToCompile.clear();
+    filesToCompile.addAll(allFilesToCompile);
+  }
+
+  private static void addChangedDependents(JangarooBuildTarget target, String upstreamId, String upstreamDigest,
+                                           Map<String, String> currentFingerprints, JangarooDependencyIndex dependencyIndex,
+                                           JangarooApiFingerprints apiFingerprints, Set<File> allFilesToCompile) {
+    Map<String, String> knownFingerprints = apiFingerprints.getUpstreamFingerprints(upstreamId);
+    Set<String> changedClasses = new HashSet<String>(knownFingerprints.keySet());
+    changedClasses.addAll(currentFingerprints.keySet());
+    Map<String, String> referencedFingerprints = new HashMap<String, String>();
+    for (String upstreamClass : changedClasses) {
+      Set<File> dependents = dependencyIndex.getDependents(upstreamClass);
+      if (dependents.isEmpty()) {
+        continue;
+      }
+      String currentFingerprint = currentFingerprints.get(upstreamClass);
+      if (currentFingerprint != null) {
+        referencedFingerprints.put(upstreamClass, currentFingerprint);
+      }
+      if (currentFingerprint == null || !currentFingerprint.equals(knownFingerprints.get(upstreamClass))) {
+        addDependents(target, dependents, allFilesToCompile);
+      }
+    }
+    apiFingerprints.rememberUpstream(upstreamId, upstreamDigest, referencedFingerprints);
+  }
+
+  private static Map<String, String> getReferencedFingerprints(Map<String, String> fingerprints, JangarooDependencyIndex dependencyIndex) {
+    Map<String, String> referencedFingerprints = new HashMap<String, String>();
+    for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+      if (!dependencyIndex.getDependents(entry.getKey()).isEmpty()) {
+        referencedFingerprints.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return referencedFingerprints;
+  }
+
+  /**
+   * All compiled library roots on the class path of the given target.
+   */
+  private static List<File> getLibraries(JangarooBuildTarget target) {
+    List<File> libraries = new ArrayList<File>();
+    for (JpsFlexDependencyEntry entry : target.getBC().getDependencies().getEntries()) {
+      if (entry instanceof JpsLibraryDependencyEntry && (!LinkageType.Test.equals(entry.getLinkageType()) || target.isTests())) {
+        JpsLibrary library = ((JpsLibraryDependencyEntry)entry).getLibrary();
+        if (library != null) {
+          libraries.addAll(library.getFiles(JpsOrderRootType.COMPILED));
+        }
+      }
+    }
+    return libraries;
+  }
+
+  /**
+   * Determine the dependency build configurations whose API stubs can be used on the class path instead of
+   * their sources: those that generate API stubs, have been compiled before, and did not fail in this build.
+   * Dependencies built in check-only mode or with pending sources are skipped, too: their API fingerprints
+   * already reflect their sources, but their API stubs do not.
+   */
+  private static Map<JpsFlexBuildConfiguration, File> getUpToDateApiStubDirectories(CompileContext context, JangarooBuildTarget target) {
+    Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC = new HashMap<JpsFlexBuildConfiguration, File>();
+    Set<String> failedTargetIds = context.getUserData(FAILED_TARGET_IDS);
+    for (JangarooBuildTarget dependencyTarget : target.getDependencyTargets()) {
+      if (dependencyTarget.isTests() || failedTargetIds == null || failedTargetIds.contains(dependencyTarget.getId())
+        || isCheckOnly(context, dependencyTarget)
+        || !JangarooPendingSources.load(context.getProjectDescriptor().dataManager.getDataPaths(), dependencyTarget).isEmpty()) {
+        continue;
+      }
+      JoocConfigurationBean upstreamJoocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(dependencyTarget.getBC().getModule());
+      File apiOutputDirectory = upstreamJoocConfigurationBean == null ? null : upstreamJoocConfigurationBean.getApiOutputDirectory();
+      if (apiOutputDirectory != null && apiOutputDirectory.isDirectory()
+        && !getApiFingerprints(context, dependencyTarget).isEmpty()) {
+        apiStubDirectoryByBC.put(dependencyTarget.getBC(), apiOutputDirectory);
+      }
+    }
+    return apiStubDirectoryByBC;
+  }
+
+  private static void addDependents(JangarooBuildTarget target, Collection<File> dependents, Collection<File> filesToCompile) {
+    for (File dependent : dependents) {
+      if (dependent.exists() && AS_SOURCES_FILTER.accept(dependent) && target.isUnderSourceRoot(dependent)) {
+        filesToCompile.add(dependent);
+      }
+    }
+  }
+
+  private static void updateDependencyIndex(CompileContext context, JangarooBuildTarget target, List<File> compiledFiles,
+                                            JangarooDependencyIndex dependencyIndex) {
+    Map<String, Map<String, String>> componentClassesByNamespace = context.getUserData(MODEL_CACHE)
+      .getComponentClassesByNamespace(target.getBC(), target.isTests());
+    for (File compiledFile : compiledFiles) {
+      String className = target.getQualifiedClassName(compiledFile);
+      if (className == null || !compiledFile.exists()) {
+        dependencyIndex.remove(compiledFile);
+        continue;
+      }
+      try {
+        dependencyIndex.update(compiledFile, ClassReferenceScanner.scan(compiledFile, ClassReferenceScanner.getPackageName(className),
+          componentClassesByNamespace));
+      } catch (IOException e) {
+        dependencyIndex.remove(compiledFile);
+      }
     }
   }
 
+  /**
+   * Update the API fingerprints of all compiled classes and return the names of the classes
+   * whose public API changed.
+   */
+  private static Set<String> updateApiFingerprints(JangarooBuildTarget target, @Nullable File apiOutputDirectory,
+                                                   List<File> compiledFiles, JangarooApiFingerprints apiFingerprints) {
+    Set<String> changedClasses = new LinkedHashSet<String>();
+    for (File compiledFile : compiledFiles) {
+      String className = target.getQualifiedClassName(compiledFile);
+      if (className != null) {
+        String fingerprint = compiledFile.exists() ? JangarooApiFingerprints.computeFingerprint(apiOutputDirectory, className, compiledFile) : null;
+        if (apiFingerprints.update(className, fingerprint)) {
+          changedClasses.add(className);
+        }
+      }
+    }
+    return changedClasses;
+  }
+
   private boolean compile(CompileContext context, BuildOutputConsumer outputConsumer, List<File> filesToCompile,
-                           JpsCompileLog compileLog, JangarooBuildTarget moduleBuildTarget) throws IOException {
+                          List<File> removedOutputs, JpsCompileLog compileLog, JangarooBuildTarget moduleBuildTarget,
+                          JangarooDependencyIndex dependencyIndex, JangarooApiFingerprints apiFingerprints,
+                          JangarooDiagnosticsStore diagnosticsStore, JangarooPendingSources pendingSources,
+                          boolean checkOnly) throws IOException {
     JpsFlexBuildConfiguration bc = moduleBuildTarget.getBC();
     JpsModule module = bc.getModule();
     JoocConfigurationBean joocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(module);
@@ -127,38 +541,346 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
         String.format("Jangaroo module %s does not have a valid Jangaroo SDK. Compilation skipped.", module.getName())));
       return false;
     }
-    JoocConfiguration joocConfiguration = getJoocConfiguration(joocConfigurationBean, bc, filesToCompile, moduleBuildTarget.isTests());
-    log.info(String.format("Compiling module %s...", module.getName()));
+    // in check-only mode, jooc writes its output to a scratch directory, which is deleted afterwards:
+    File checkOutputDirectory = checkOnly ? createCheckOutputDirectory(context, moduleBuildTarget) : null;
+    File apiOutputDirectory = moduleBuildTarget.isTests() ? null
+      : checkOutputDirectory == null ? joocConfigurationBean.getApiOutputDirectory() : getCheckApiOutputDirectory(checkOutputDirectory);
+    try {
+      // compile in rounds: when the public API of a compiled class changes, its dependents have to be recompiled, too:
+      Set<File> compiledFiles = new HashSet<File>();
+      List<File> writtenOutputs = new ArrayList<File>();
+      List<File> roundFiles = filesToCompile;
+      while (!roundFiles.isEmpty()) {
+        boolean success = compile(context, outputConsumer, roundFiles, compileLog, moduleBuildTarget, joocConfigurationBean, jarPaths,
+          writtenOutputs, checkOutputDirectory);
+        updateDependencyIndex(context, moduleBuildTarget, roundFiles, dependencyIndex);
+        diagnosticsStore.update(roundFiles, compileLog);
+        pendingSources.addAll(roundFiles);
+        if (!success) {
+          return false;
+        }
+        compiledFiles.addAll(roundFiles);
+        Set<File> dependentsToCompile = new LinkedHashSet<File>();
+        for (String changedClass : updateApiFingerprints(moduleBuildTarget, apiOutputDirectory, roundFiles, apiFingerprints)) {
+          addDependents(moduleBuildTarget, dependencyIndex.getDependents(changedClass), dependentsToCompile);
+        }
+        dependentsToCompile.removeAll(compiledFiles);
+        roundFiles = new ArrayList<File>(dependentsToCompile);
+      }
+
+      if (checkOutputDirectory == null) {
+        doPackage(context, moduleBuildTarget, joocConfigurationBean, jarPaths, writtenOutputs, removedOutputs);
+      } else if (!removedOutputs.isEmpty()) {
+        invalidatePackage(context, moduleBuildTarget, removedOutputs);
+      }
+      return true;
+    } finally {
+      if (checkOutputDirectory != null) {
+        FileUtil.delete(checkOutputDirectory);
+      }
+    }
+  }
+
+  private static File createCheckOutputDirectory(CompileContext context, JangarooBuildTarget target) {
+    File checkOutputDirectory = new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target),
+      CHECK_OUTPUT_DIRECTORY_NAME);
+    // API stubs left over from an aborted check would spoil the API fingerprints:
+    FileUtil.delete(checkOutputDirectory);
+    return checkOutputDirectory;
+  }
+
+  private static File getStagingDirectory(CompileContext context, JangarooBuildTarget target) {
+    return new File(context.getProjectDescriptor().dataManager.getDataPaths().getTargetDataRoot(target), STAGING_DIRECTORY_NAME);
+  }
+
+  private static File getCheckApiOutputDirectory(File checkOutputDirectory) {
+    return new File(checkOutputDirectory, "api");
+  }
+
+  /**
+   * In check-only mode, the Sencha package is not updated, so make sure the next regular build does not
+   * miss the deletion of removed outputs.
+   */
+  private static void invalidatePackage(CompileContext context, JangarooBuildTarget target, Collection<File> removedOutputs) throws IOException {
+    JangarooPackageManifest packageManifest = JangarooPackageManifest.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+    for (File removedOutput : removedOutputs) {
+      packageManifest.remove(removedOutput);
+    }
+    packageManifest.setPackaged(false);
+    packageManifest.save();
+  }
+
+  private boolean compile(CompileContext context, BuildOutputConsumer outputConsumer, List<File> filesToCompile,
+                          JpsCompileLog compileLog, JangarooBuildTarget moduleBuildTarget,
+                          JoocConfigurationBean joocConfigurationBean, List<String> jarPaths,
+                          Collection<File> writtenOutputs, @Nullable File checkOutputDirectory) throws IOException {
+    JpsFlexBuildConfiguration bc = moduleBuildTarget.getBC();
+    JpsModule module = bc.getModule();
+    // upstream API stubs are not updated by checks, so check against upstream sources:
+    Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC = joocConfigurationBean.compileAgainstApiStubs && checkOutputDirectory == null
+      ? getUpToDateApiStubDirectories(context, moduleBuildTarget)
+      : Collections.<JpsFlexBuildConfiguration, File>emptyMap();
+    JangarooBuildTrace trace = getTrace(context);
+    long phaseStart = trace.start();
+    JoocConfiguration joocConfiguration = getJoocConfiguration(joocConfigurationBean, bc, filesToCompile, moduleBuildTarget.isTests(), apiStubDirectoryByBC,
+      context.getUserData(MODEL_CACHE));
+    if (checkOutputDirectory != null) {
+      joocConfiguration.setOutputDirectory(checkOutputDirectory);
+      joocConfiguration.setApiOutputDirectory(moduleBuildTarget.isTests() ? null : getCheckApiOutputDirectory(checkOutputDirectory));
+    }
+    trace.record("configure", moduleBuildTarget, phaseStart, "files", filesToCompile.size());
+    log.info(String.format(checkOutputDirectory == null ? "Compiling module %s..." : "Checking module %s...", module.getName()));
     if (log.isDebugEnabled()) {
       log.debug(String.format("  module %s classpath=%s, sourcepath=%s, sourcefiles=%s", module.getName(),
         joocConfiguration.getClassPath(), joocConfiguration.getSourcePath(), joocConfiguration.getSourceFiles()));
     }
-    Jooc jooc = getJooc(context, jarPaths, joocConfiguration, compileLog);
-    if (jooc == null) {
-      log.warn(String.format("No Jangaroo build configuration found in module %s.", module.getName()));
-      return false;
+    JangarooBuildCache buildCache = checkOutputDirectory == null ? context.getUserData(BUILD_CACHE) : null;
+    Map<File, String> buildCacheKeys = Collections.emptyMap();
+    if (buildCache != null) {
+      phaseStart = trace.start();
+      buildCacheKeys = computeBuildCacheKeys(context, moduleBuildTarget, joocConfigurationBean, joocConfiguration, jarPaths, filesToCompile);
+      List<File> cacheMisses = new ArrayList<File>();
+      SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(moduleBuildTarget);
+      for (File sourceFile : filesToCompile) {
+        String buildCacheKey = buildCacheKeys.get(sourceFile);
+        Set<File> changedOutputs = new HashSet<File>();
+        List<JpsCompileLog.Warning> warnings = new ArrayList<JpsCompileLog.Warning>();
+        List<File> restoredOutputs = buildCacheKey == null ? null : buildCache.restore(buildCacheKey,
+          joocConfiguration.getOutputDirectory(), joocConfiguration.getApiOutputDirectory(), changedOutputs, warnings);
+        if (restoredOutputs == null) {
+          cacheMisses.add(sourceFile);
+        } else {
+          for (File restoredOutput : restoredOutputs) {
+            registerOutput(outputConsumer, sourceToOutputMap, sourceFile, restoredOutput,
+              changedOutputs.contains(restoredOutput), writtenOutputs);
+          }
+          // so that they are stored and shown as if the file had been compiled:
+          for (JpsCompileLog.Warning warning : warnings) {
+            compileLog.restoreWarning(sourceFile.getAbsolutePath(), warning);
+          }
+        }
+      }
+      trace.record("restoreFromBuildCache", moduleBuildTarget, phaseStart,
+        "files", filesToCompile.size(), "misses", cacheMisses.size());
+      if (cacheMisses.isEmpty()) {
+        log.info(String.format("All files of module %s restored from Jangaroo build cache.", module.getName()));
+        return true;
+      }
+      joocConfiguration.setSourceFiles(cacheMisses);
     }
-    CompilationResult compilationResult = compile(jooc, outputConsumer);
-    if (compilationResult.getResultCode() == CompilationResult.RESULT_CODE_COMPILATION_FAILED) {
-      log.info(String.format("Compilation failed in module %s.", module.getName()));
-      return false;
+    JangarooOutputSink outputSink = null;
+    if (checkOutputDirectory == null) {
+      outputSink = JangarooOutputSink.create(getStagingDirectory(context, moduleBuildTarget),
+        joocConfiguration.getOutputDirectory(), joocConfiguration.getApiOutputDirectory());
+      joocConfiguration.setOutputDirectory(outputSink.getStagedOutputDirectory());
+      joocConfiguration.setApiOutputDirectory(outputSink.getStagedApiOutputDirectory());
     }
-    if (compilationResult.getResultCode() != CompilationResult.RESULT_CODE_OK) {
-      log.error(String.format("Unexpected compilation result %s in module %s.", compilationResult.getResultCode(), module.getName()));
-      return false;
+    try {
+      JoocPool.Key joocKey = new JoocPool.Key(jarPaths, joocConfiguration.getClassPath());
+      String classPathStamp = computeClassPathStamp(context, moduleBuildTarget, joocConfiguration.getClassPath());
+      phaseStart = trace.start();
+      Jooc jooc = getPooledJooc(context, joocKey, classPathStamp, joocConfiguration, compileLog);
+      trace.record("loadCompiler", moduleBuildTarget, phaseStart);
+      if (jooc == null) {
+        log.warn(String.format("No Jangaroo build configuration found in module %s.", module.getName()));
+        return false;
+      }
+      CompilationResult compilationResult = runJooc(jooc, joocConfiguration.getSourceFiles().size(), trace, moduleBuildTarget);
+      JoocPool.release(joocKey, classPathStamp, jooc);
+      compileLog.flush();
+      if (outputSink != null) {
+        // before storing in the build cache, which restores outputs to their committed location:
+        outputSink.rebaseSourceMaps();
+      }
+      if (buildCache != null && compilationResult.getResultCode() == CompilationResult.RESULT_CODE_OK) {
+        // before committing, which moves the staged outputs away:
+        storeInBuildCache(buildCache, buildCacheKeys, moduleBuildTarget, joocConfiguration, compilationResult, compileLog);
+      }
+      if (outputSink != null) {
+        registerOutputs(context, outputConsumer, compilationResult, outputSink, writtenOutputs, trace, moduleBuildTarget);
+      }
+      if (compilationResult.getResultCode() == CompilationResult.RESULT_CODE_COMPILATION_FAILED) {
+        log.info(String.format("Compilation failed in module %s.", module.getName()));
+        return false;
+      }
+      if (compilationResult.getResultCode() != CompilationResult.RESULT_CODE_OK) {
+        log.error(String.format("Unexpected compilation result %s in module %s.", compilationResult.getResultCode(), module.getName()));
+        return false;
+      }
+      log.info(String.format("Compilation of module %s completed successfully.", module.getName()));
+      return true;
+    } finally {
+      if (outputSink != null) {
+        outputSink.dispose();
+      }
+    }
+  }
+
+  /**
+   * Compute the build cache key of each given source file: a hash over the source itself, the API fingerprints
+   * of all classes it references, all output-relevant compiler settings, the contents of the Jangaroo SDK
+   * and libraries, and the location of the source root relative to the output directory, which determines
+   * the source paths in source maps. Source files not under a source root get no key.
+   */
+  private static Map<File, String> computeBuildCacheKeys(CompileContext context, JangarooBuildTarget target,
+                                                         JoocConfigurationBean joocConfigurationBean,
+                                                         JoocConfiguration joocConfiguration,
+                                                         List<String> jarPaths, List<File> sourceFiles) throws IOException {
+    MessageDigest targetDigest = DigestUtils.createDigest();
+    DigestUtils.update(targetDigest, String.valueOf(JangarooBuildCache.VERSION));
+    DigestUtils.update(targetDigest, String.valueOf(target.isTests()));
+    DigestUtils.update(targetDigest, String.valueOf(joocConfigurationBean.debugLevel));
+    DigestUtils.update(targetDigest, String.valueOf(joocConfigurationBean.enableAssertions));
+    DigestUtils.update(targetDigest, String.valueOf(joocConfigurationBean.allowDuplicateLocalVariables));
+    DigestUtils.update(targetDigest, String.valueOf(joocConfigurationBean.publicApiViolationsMode));
+    DigestUtils.update(targetDigest, joocConfigurationBean.extNamespace);
+    DigestUtils.update(targetDigest, joocConfigurationBean.extSassNamespace);
+    DigestUtils.update(targetDigest, joocConfigurationBean.outputFilePrefix);
+    for (NamespaceConfiguration namespace : joocConfiguration.getNamespaces()) {
+      DigestUtils.update(targetDigest, namespace.getUri());
+      File manifest = namespace.getManifest();
+      DigestUtils.update(targetDigest, manifest != null && manifest.isFile() ? DigestUtils.hashCached(manifest) : null);
+    }
+    for (String jarPath : jarPaths) {
+      DigestUtils.update(targetDigest, DigestUtils.hashCached(new File(jarPath)));
+    }
+    // upstream source roots and API stubs are represented by the fingerprints of referenced classes below:
+    List<JangarooBuildTarget> upstreamTargets = target.getUpstreamTargets();
+    Set<File> upstreamDirectories = getUpstreamDirectories(target);
+    for (File classPathEntry : joocConfiguration.getClassPath()) {
+      if (classPathEntry.isFile()) {
+        DigestUtils.update(targetDigest, DigestUtils.hashCached(classPathEntry));
+      } else if (!upstreamDirectories.contains(classPathEntry)) {
+        DigestUtils.update(targetDigest, classPathEntry.getPath());
+        DigestUtils.update(targetDigest, context.getUserData(MODEL_CACHE).getLibraryDigest(classPathEntry));
+      }
+    }
+    String targetKey = DigestUtils.toHex(targetDigest.digest());
+
+    Map<String, String> apiFingerprintByClass = new HashMap<String, String>();
+    for (JangarooBuildTarget upstreamTarget : upstreamTargets) {
+      apiFingerprintByClass.putAll(getApiFingerprints(context, upstreamTarget).getFingerprints());
+    }
+    apiFingerprintByClass.putAll(getApiFingerprints(context, target).getFingerprints());
+    // classes compiled together may change their API, so use their source hash instead of their old API fingerprint:
+    Map<File, String> classNameBySourceFile = new HashMap<File, String>();
+    for (File sourceFile : sourceFiles) {
+      String className = target.getQualifiedClassName(sourceFile);
+      if (className != null) {
+        classNameBySourceFile.put(sourceFile, className);
+        apiFingerprintByClass.put(className, "src:" + DigestUtils.hash(sourceFile));
+      }
+    }
+
+    Map<String, String> sortedApiFingerprintByClass = new TreeMap<String, String>(apiFingerprintByClass);
+    Map<String, Map<String, String>> componentClassesByNamespace = context.getUserData(MODEL_CACHE)
+      .getComponentClassesByNamespace(target.getBC(), target.isTests());
+    File outputDirectory = joocConfiguration.getOutputDirectory();
+    Map<File, String> buildCacheKeys = new HashMap<File, String>();
+    for (Map.Entry<File, String> sourceFileAndClassName : classNameBySourceFile.entrySet()) {
+      File sourceFile = sourceFileAndClassName.getKey();
+      String className = sourceFileAndClassName.getValue();
+      MessageDigest digest = DigestUtils.createDigest();
+      DigestUtils.update(digest, targetKey);
+      DigestUtils.update(digest, className);
+      // source maps refer to their source relative to the output directory:
+      File sourceRoot = target.getSourceRoot(sourceFile);
+      String sourceRootPath = sourceRoot == null ? null : FileUtil.getRelativePath(outputDirectory, sourceRoot);
+      DigestUtils.update(digest, sourceRootPath == null ? null : FileUtil.toSystemIndependentName(sourceRootPath));
+      DigestUtils.update(digest, apiFingerprintByClass.get(className));
+      for (String referencedClass : new TreeSet<String>(ClassReferenceScanner.scan(sourceFile, ClassReferenceScanner.getPackageName(className),
+        componentClassesByNamespace))) {
+        DigestUtils.update(digest, referencedClass);
+        if (ClassReferenceScanner.ANY_CLASS.equals(referencedClass)) {
+          for (Map.Entry<String, String> apiFingerprint : sortedApiFingerprintByClass.entrySet()) {
+            DigestUtils.update(digest, apiFingerprint.getKey());
+            DigestUtils.update(digest, apiFingerprint.getValue());
+          }
+        } else if (referencedClass.endsWith(".*")) {
+          String packagePrefix = referencedClass.substring(0, referencedClass.length() - 1);
+          for (Map.Entry<String, String> apiFingerprint : sortedApiFingerprintByClass.entrySet()) {
+            if (apiFingerprint.getKey().startsWith(packagePrefix) && apiFingerprint.getKey().indexOf('.', packagePrefix.length()) == -1) {
+              DigestUtils.update(digest, apiFingerprint.getKey());
+              DigestUtils.update(digest, apiFingerprint.getValue());
+            }
+          }
+        } else {
+          DigestUtils.update(digest, apiFingerprintByClass.get(referencedClass));
+        }
+      }
+      buildCacheKeys.put(sourceFile, DigestUtils.toHex(digest.digest()));
+    }
+    return buildCacheKeys;
+  }
+
+  private static void storeInBuildCache(JangarooBuildCache buildCache, Map<File, String> buildCacheKeys, JangarooBuildTarget target,
+                                        JoocConfiguration joocConfiguration, CompilationResult compilationResult,
+                                        JpsCompileLog compileLog) {
+    File apiOutputDirectory = joocConfiguration.getApiOutputDirectory();
+    for (File sourceFile : joocConfiguration.getSourceFiles()) {
+      String buildCacheKey = buildCacheKeys.get(sourceFile);
+      File outputFile = compilationResult.getOutputFileMap().get(sourceFile);
+      String className = target.getQualifiedClassName(sourceFile);
+      if (buildCacheKey != null && outputFile != null && outputFile.isFile() && className != null) {
+        List<File> outputFiles = new ArrayList<File>();
+        outputFiles.add(outputFile);
+        File sourceMapFile = new File(outputFile.getPath() + SOURCE_MAP_SUFFIX);
+        if (sourceMapFile.isFile()) {
+          outputFiles.add(sourceMapFile);
+        }
+        buildCache.store(buildCacheKey, joocConfiguration.getOutputDirectory(), outputFiles, apiOutputDirectory,
+          apiOutputDirectory == null ? null : JangarooApiFingerprints.getApiStub(apiOutputDirectory, className),
+          compileLog.getWarnings(sourceFile.getAbsolutePath()));
+      }
+    }
+  }
+
+  /**
+   * Run the Sencha packager, but only if any output inside the Sencha package directory actually changed
+   * its content or was removed since the packager last ran successfully, as recorded in the target's package manifest.
+   */
+  private void doPackage(CompileContext context, JangarooBuildTarget target, JoocConfigurationBean joocConfigurationBean,
+                         List<String> jarPaths, Collection<File> writtenOutputs, Collection<File> removedOutputs) throws IOException {
+    // outputDirectory already is the /src directory, so we use "..", but normalize afterwards:
+    File senchaPackageDirectory = Paths.get(joocConfigurationBean.getOutputDirectory().getPath() + File.separator + "..").normalize().toFile();
+    JangarooPackageManifest packageManifest = JangarooPackageManifest.load(context.getProjectDescriptor().dataManager.getDataPaths(), target);
+    boolean packageAffected = !packageManifest.isPackaged();
+    for (File writtenOutput : writtenOutputs) {
+      if (FileUtil.isAncestor(senchaPackageDirectory, writtenOutput, true)) {
+        packageAffected |= packageManifest.update(writtenOutput);
+      }
+    }
+    for (File removedOutput : removedOutputs) {
+      packageAffected |= packageManifest.remove(removedOutput);
+    }
+    if (packageAffected) {
+      JangarooBuildTrace trace = getTrace(context);
+      long phaseStart = trace.start();
+      long packageStart = System.nanoTime();
+      packageManifest.setPackaged(doPackage(context, joocConfigurationBean, jarPaths, senchaPackageDirectory));
+      long packageNanos = System.nanoTime() - packageStart;
+      JangarooBuilderMetrics.getInstance().packaged(packageNanos);
+      JangarooBuildHistory buildHistory = context.getUserData(BUILD_HISTORY);
+      if (buildHistory != null) {
+        buildHistory.recordPackaging(target.getId(), TimeUnit.NANOSECONDS.toMillis(packageNanos));
+      }
+      trace.record("package", target, phaseStart);
+    } else {
+      log.info(String.format("No package-relevant changes in module %s, skipping Sencha packaging.", target.getBC().getModule().getName()));
     }
-    log.info(String.format("Compilation of module %s completed successfully.", module.getName()));
+    packageManifest.save();
+  }
 
+  private static boolean doPackage(CompileContext context, JoocConfigurationBean joocConfigurationBean, List<String> jarPaths,
+                                   File senchaPackageDirectory) {
     try {
       Packager packager = CompilerLoader.loadPackager(jarPaths);
-      // outputDirectory already is the /src directory, so we use "..", but normalize afterwards:
-      File senchaPackageDirectory = Paths.get(joocConfigurationBean.getOutputDirectory().getPath() + File.separator + "..").normalize().toFile();
       File sourceDirectory = new File(senchaPackageDirectory, "src");
       File overridesDirectory = new File(senchaPackageDirectory, "overrides");
       File localizedOverridesDirectory = new File(senchaPackageDirectory, "locale");
       if (packager instanceof Packager2) {
         ((Packager2) packager).doPackage2(
-          joocConfiguration.getExtNamespace(),
+          joocConfigurationBean.extNamespace,
           sourceDirectory,
           overridesDirectory,
           localizedOverridesDirectory,
@@ -174,12 +896,14 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
           joocConfigurationBean.outputFilePrefix
         );
       }
+      return true;
     } catch (ClassNotFoundException e) {
       // Jangaroo SDK without Packager: simply skip this task.
+      return true;
     } catch (Exception e) {
       context.processMessage(new CompilerMessage(BUILDER_NAME + "-packager", e));
+      return false;
     }
-    return true;
   }
 
   @Nullable
@@ -193,15 +917,63 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
     return JpsJangarooSdkType.getSdkJarPaths(sdk);
   }
 
-  private CompilationResult compile(Jooc jooc,
-                                    BuildOutputConsumer outputConsumer) throws IOException {
-    CompilationResult compilationResult = jooc.run();
+  private CompilationResult runJooc(Jooc jooc, int fileCount, JangarooBuildTrace trace, JangarooBuildTarget target) {
+    CompilationResult compilationResult;
+    long phaseStart = trace.start();
+    long runStart = System.nanoTime();
+    if (PARALLEL_COMPILATION) {
+      compilationResult = jooc.run();
+    } else {
+      synchronized (SERIAL_COMPILATION_LOCK) {
+        compilationResult = jooc.run();
+      }
+    }
+    JangarooBuilderMetrics.getInstance().compiled(fileCount, System.nanoTime() - runStart,
+      compilationResult.getResultCode() != CompilationResult.RESULT_CODE_OK);
+    trace.record("jooc", target, phaseStart, "resultCode", compilationResult.getResultCode());
+    return compilationResult;
+  }
+
+  /**
+   * Commit the staged outputs and report only those that actually changed to JPS and, through
+   * <code>writtenOutputs</code>, to the packager. Unchanged outputs are not reported, so that nobody
+   * reprocesses them; only their source-to-output mapping is kept up to date.
+   */
+  private static void registerOutputs(CompileContext context, BuildOutputConsumer outputConsumer,
+                                      CompilationResult compilationResult, JangarooOutputSink outputSink,
+                                      Collection<File> writtenOutputs, JangarooBuildTrace trace,
+                                      JangarooBuildTarget target) throws IOException {
+    long phaseStart = trace.start();
+    Set<File> changedOutputs = outputSink.commit();
+    SourceToOutputMapping sourceToOutputMap = context.getProjectDescriptor().dataManager.getSourceToOutputMap(target);
+    int registeredCount = 0;
     for (Map.Entry<File, File> sourceToTarget : compilationResult.getOutputFileMap().entrySet()) {
       if (sourceToTarget.getValue() != null) { // only non-native classes!
-        outputConsumer.registerOutputFile(sourceToTarget.getValue(), toSingletonPath(sourceToTarget.getKey()));
+        File outputFile = outputSink.toOutputFile(sourceToTarget.getValue());
+        boolean changed = changedOutputs.contains(outputFile);
+        registerOutput(outputConsumer, sourceToOutputMap, sourceToTarget.getKey(), outputFile, changed, writtenOutputs);
+        if (changed) {
+          ++registeredCount;
+        }
+      }
+    }
+    trace.record("registerOutputs", target, phaseStart, "outputs", compilationResult.getOutputFileMap().size(),
+      "changed", registeredCount, "unchanged", outputSink.getUnchangedCount());
+  }
+
+  private static void registerOutput(BuildOutputConsumer outputConsumer, SourceToOutputMapping sourceToOutputMap,
+                                     File sourceFile, File outputFile, boolean changed,
+                                     Collection<File> writtenOutputs) throws IOException {
+    if (changed) {
+      outputConsumer.registerOutputFile(outputFile, toSingletonPath(sourceFile));
+      writtenOutputs.add(outputFile);
+    } else {
+      String sourcePath = sourceFile.getPath();
+      Collection<String> outputPaths = sourceToOutputMap.getOutputs(sourcePath);
+      if (outputPaths == null || !outputPaths.contains(outputFile.getPath())) {
+        sourceToOutputMap.appendOutput(sourcePath, outputFile.getPath());
       }
     }
-    return compilationResult;
   }
 
   public static Set<String> toSingletonPath(File file) {
@@ -227,44 +999,60 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
   }
 
   protected JoocConfiguration getJoocConfiguration(JoocConfigurationBean joocConfigurationBean, JpsFlexBuildConfiguration bc, List<File> sourceFiles, boolean forTests) {
+    return getJoocConfiguration(joocConfigurationBean, bc, sourceFiles, forTests, Collections.<JpsFlexBuildConfiguration, File>emptyMap(),
+      new JangarooModelCache());
+  }
+
+  protected JoocConfiguration getJoocConfiguration(JoocConfigurationBean joocConfigurationBean, JpsFlexBuildConfiguration bc, List<File> sourceFiles, boolean forTests,
+                                                   Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC,
+                                                   JangarooModelCache modelCache) {
     JoocConfiguration joocConfig = new JoocConfiguration();
     joocConfig.setVerbose(joocConfigurationBean.verbose);
     joocConfig.setDebugMode(joocConfigurationBean.isDebug() ? joocConfigurationBean.isDebugSource() ? DebugMode.SOURCE : DebugMode.LINES : null);
     joocConfig.setAllowDuplicateLocalVariables(joocConfigurationBean.allowDuplicateLocalVariables);
     joocConfig.setEnableAssertions(joocConfigurationBean.enableAssertions);
     joocConfig.setApiOutputDirectory(forTests ? null : joocConfigurationBean.getApiOutputDirectory());
-    updateFileLocations(joocConfig, bc, forTests, true);
+    updateFileLocations(joocConfig, bc, forTests, true, apiStubDirectoryByBC, modelCache);
     joocConfig.setSourceFiles(sourceFiles);
     joocConfig.setMergeOutput(false); // no longer supported: joocConfigurationBean.mergeOutput;
     joocConfig.setOutputDirectory(forTests ? joocConfigurationBean.getTestOutputDirectory() : joocConfigurationBean.getOutputDirectory());
     joocConfig.setPublicApiViolationsMode(joocConfigurationBean.publicApiViolationsMode);
     joocConfig.setExtNamespace(joocConfigurationBean.extNamespace);
     joocConfig.setExtSassNamespace(joocConfigurationBean.extSassNamespace);
-
-    List<NamespaceConfiguration> namespaceConfigurations = new ArrayList<NamespaceConfiguration>();
-    collectNamespaceConfigurations(namespaceConfigurations, bc);
-    List<JpsFlexDependencyEntry> entries = bc.getDependencies().getEntries();
-    for (JpsFlexDependencyEntry entry : entries) {
-      if (entry instanceof JpsFlexBCDependencyEntry && (!LinkageType.Test.equals(entry.getLinkageType()) || forTests)) {
-        JpsFlexBCDependencyEntry bcDependencyEntry = (JpsFlexBCDependencyEntry)entry;
-        JpsFlexBuildConfiguration buildConfiguration = bcDependencyEntry.getBC();
-        if (buildConfiguration == null) {
-          log.warn(String.format("Encountered null dependency entry in module %s of type %s.", bc.getModule().getName(), bcDependencyEntry.getLinkageType()));
-        } else {
-          collectNamespaceConfigurations(namespaceConfigurations, buildConfiguration);
-        }
-      }
-    }
-    joocConfig.setNamespaces(namespaceConfigurations);
+    joocConfig.setNamespaces(new ArrayList<NamespaceConfiguration>(modelCache.getNamespaceConfigurations(bc, forTests)));
 
     return joocConfig;
   }
 
   public static void updateFileLocations(FileLocations fileLocations, JpsFlexBuildConfiguration bc,
                                          boolean forTests, boolean compileGeneratedSources) {
-    Collection<File> classPath = new LinkedHashSet<File>();
-    Collection<File> sourcePath = new LinkedHashSet<File>();
-    addToClassOrSourcePath(bc, classPath, sourcePath, forTests, compileGeneratedSources);
+    updateFileLocations(fileLocations, bc, forTests, compileGeneratedSources, Collections.<JpsFlexBuildConfiguration, File>emptyMap(),
+      new JangarooModelCache());
+  }
+
+  /**
+   * Like {@link #updateFileLocations(FileLocations, JpsFlexBuildConfiguration, boolean, boolean)}, but
+   * dependency build configurations contained in <code>apiStubDirectoryByBC</code> contribute their API stub
+   * directory instead of their source roots, and everything resolved from the JPS model is taken from and
+   * added to the given per-build cache.
+   */
+  public static void updateFileLocations(FileLocations fileLocations, JpsFlexBuildConfiguration bc,
+                                         boolean forTests, boolean compileGeneratedSources,
+                                         Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC,
+                                         JangarooModelCache modelCache) {
+    List<File> classPath;
+    List<File> sourcePath;
+    if (apiStubDirectoryByBC.isEmpty()) {
+      FileLocations cachedFileLocations = modelCache.getFileLocations(bc, forTests, compileGeneratedSources);
+      classPath = cachedFileLocations.getClassPath();
+      sourcePath = cachedFileLocations.getSourcePath();
+    } else {
+      Collection<File> classPathSet = new LinkedHashSet<File>();
+      Collection<File> sourcePathSet = new LinkedHashSet<File>();
+      addToClassOrSourcePath(bc, classPathSet, sourcePathSet, forTests, compileGeneratedSources, apiStubDirectoryByBC, modelCache);
+      classPath = new ArrayList<File>(classPathSet);
+      sourcePath = new ArrayList<File>(sourcePathSet);
+    }
     fileLocations.setClassPath(new ArrayList<File>(classPath));
     try {
       fileLocations.setSourcePath(new ArrayList<File>(sourcePath));
@@ -275,6 +1063,14 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
 
   public static void addToClassOrSourcePath(JpsFlexBuildConfiguration bc, Collection<File> classPath, Collection<File> sourcePath,
                                             boolean forTests, boolean compileGeneratedSources) {
+    addToClassOrSourcePath(bc, classPath, sourcePath, forTests, compileGeneratedSources, Collections.<JpsFlexBuildConfiguration, File>emptyMap(),
+      new JangarooModelCache());
+  }
+
+  static void addToClassOrSourcePath(JpsFlexBuildConfiguration bc, Collection<File> classPath, Collection<File> sourcePath,
+                                     boolean forTests, boolean compileGeneratedSources,
+                                     Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC,
+                                     JangarooModelCache modelCache) {
     JpsModule module = bc.getModule();
     JavaSourceRootType sourceRootType = forTests ? JavaSourceRootType.TEST_SOURCE : JavaSourceRootType.SOURCE;
     for (JpsTypedModuleSourceRoot<JavaSourceRootProperties> sourceRoot : module.getSourceRoots(sourceRootType)) {
@@ -302,12 +1098,14 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
     List<JpsFlexDependencyEntry> entries = bc.getDependencies().getEntries();
     for (JpsFlexDependencyEntry entry : entries) {
       if (!LinkageType.Test.equals(entry.getLinkageType()) || forTests) {
-        addToClassPath(classPath, entry);
+        addToClassPath(classPath, entry, apiStubDirectoryByBC, modelCache);
       }
     }
   }
 
-  private static void addToClassPath(Collection<File> classPath, JpsFlexDependencyEntry dependency) {
+  private static void addToClassPath(Collection<File> classPath, JpsFlexDependencyEntry dependency,
+                                     Map<JpsFlexBuildConfiguration, File> apiStubDirectoryByBC,
+                                     JangarooModelCache modelCache) {
     if (dependency instanceof JpsLibraryDependencyEntry) {
       JpsLibrary library = ((JpsLibraryDependencyEntry)dependency).getLibrary();
       if (library != null) {
@@ -317,10 +1115,11 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
       JpsFlexBuildConfiguration dependentBC = ((JpsFlexBCDependencyEntry)dependency).getBC();
       if (dependentBC != null) {
         JpsModule otherModule = dependentBC.getModule();
-        if (otherModule != null) {
-          for (JpsModuleSourceRoot sourceRoot : otherModule.getSourceRoots(JavaSourceRootType.SOURCE)) {
-            classPath.add(sourceRoot.getFile());
-          }
+        File apiStubDirectory = apiStubDirectoryByBC.get(dependentBC);
+        if (apiStubDirectory == null) {
+          classPath.addAll(modelCache.getDependencyClassPath(dependentBC));
+        } else if (otherModule != null) {
+          classPath.add(apiStubDirectory);
           for (JpsModuleSourceRoot sourceRoot : otherModule.getSourceRoots(JavaResourceRootType.RESOURCE)) {
             classPath.add(sourceRoot.getFile());
           }
@@ -329,18 +1128,67 @@ public class JangarooBuilder extends TargetBuilder<BuildRootDescriptor, Jangaroo
     }
   }
 
-  private static void collectNamespaceConfigurations(List<NamespaceConfiguration> namespaceConfigurations,
-                                                     @NotNull JpsFlexBuildConfiguration bc) {
-    String namespaces = bc.getCompilerOptions().getAllOptions().get("compiler.namespaces.namespace");
-    if (namespaces != null) {
-      String[] uriToManifestMap = namespaces.split("\n");
-      for (String uriToManifest : uriToManifestMap) {
-        String[] uriAndManifest = uriToManifest.split("\t");
-        if (uriAndManifest.length == 2) {
-          namespaceConfigurations.add(new NamespaceConfiguration(uriAndManifest[0], new File(IdeaFileUtils.toPath(uriAndManifest[1]))));
+  /**
+   * The source roots and API stub directories of all upstream targets of the given target. Their contents are
+   * represented by the upstream targets' API fingerprints, not by their files.
+   */
+  private static Set<File> getUpstreamDirectories(JangarooBuildTarget target) {
+    Set<File> upstreamDirectories = new HashSet<File>();
+    for (JangarooBuildTarget upstreamTarget : target.getUpstreamTargets()) {
+      JpsModule upstreamModule = upstreamTarget.getBC().getModule();
+      for (JpsModuleSourceRoot sourceRoot : upstreamModule.getSourceRoots()) {
+        upstreamDirectories.add(sourceRoot.getFile());
+      }
+      JoocConfigurationBean upstreamJoocConfigurationBean = JangarooModelSerializerExtension.getJoocSettings(upstreamModule);
+      if (upstreamJoocConfigurationBean != null && upstreamJoocConfigurationBean.getApiOutputDirectory() != null) {
+        upstreamDirectories.add(upstreamJoocConfigurationBean.getApiOutputDirectory());
+      }
+    }
+    return upstreamDirectories;
+  }
+
+  /**
+   * A stamp that changes whenever any declaration a compiler instance may have resolved for the given target
+   * may have changed: the path, size and time stamp of each class path jar, the digest of the contents of each
+   * other class path directory, the API digests of all upstream targets, whose source roots or API stubs are on
+   * the class path, and the target's own API digest, which covers its source path.
+   */
+  private static String computeClassPathStamp(CompileContext context, JangarooBuildTarget target, List<File> classPath) {
+    MessageDigest digest = DigestUtils.createDigest();
+    Set<File> upstreamDirectories = getUpstreamDirectories(target);
+    for (File classPathEntry : classPath) {
+      DigestUtils.update(digest, classPathEntry.getPath());
+      if (classPathEntry.isDirectory()) {
+        if (!upstreamDirectories.contains(classPathEntry)) {
+          DigestUtils.update(digest, context.getUserData(MODEL_CACHE).getLibraryDigest(classPathEntry));
         }
+      } else {
+        DigestUtils.update(digest, String.valueOf(classPathEntry.length()));
+        DigestUtils.update(digest, String.valueOf(classPathEntry.lastModified()));
       }
     }
+    for (JangarooBuildTarget upstreamTarget : target.getUpstreamTargets()) {
+      DigestUtils.update(digest, upstreamTarget.getId());
+      DigestUtils.update(digest, getApiFingerprints(context, upstreamTarget).getDigest());
+    }
+    DigestUtils.update(digest, getApiFingerprints(context, target).getDigest());
+    return DigestUtils.toHex(digest.digest());
+  }
+
+  @Nullable
+  private static Jooc getPooledJooc(MessageHandler messageHandler, JoocPool.Key joocKey, String classPathStamp,
+                                    JoocConfiguration configuration, CompileLog log) {
+    Jooc jooc;
+    try {
+      jooc = JoocPool.borrow(joocKey, classPathStamp);
+    } catch (Exception e) {
+      // Jangaroo SDK not correctly set up or not compatible with this Jangaroo IDEA plugin:
+      messageHandler.processMessage(new CompilerMessage(BUILDER_NAME, e));
+      return null;
+    }
+    jooc.setConfig(configuration);
+    jooc.setLog(log);
+    return jooc;
   }
 
   public static Jooc getJooc(MessageHandler messageHandler, List<String> jarPaths, JoocConfiguration configuration, CompileLog log) {
@@ -0,0 +1,158 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.jangaroo.ide.idea.jps.util.CompilerLoader;
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live metrics of the Jangaroo builder in the JPS build process, registered as MBean
+ * <code>net.jangaroo.ide:type=JangarooBuilder</code>, so that a preloaded build process can be watched with
+ * standard JMX tools like JConsole or VisualVM. Class loader metrics are taken from {@link CompilerLoader}.
+ * <p>
+ * The peak heap is sampled right after each compiler run, when the compiler's data structures are still
+ * reachable, and thus approximates the heap high-water mark of compiles.
+ * All methods are thread-safe.
+ */
+public class JangarooBuilderMetrics implements JangarooBuilderMetricsMBean {
+
+  public static final String OBJECT_NAME = "net.jangaroo.ide:type=JangarooBuilder";
+
+  private static final Logger LOG = Logger.getInstance(JangarooBuilderMetrics.class);
+  private static final JangarooBuilderMetrics INSTANCE = new JangarooBuilderMetrics();
+
+  private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+  private final AtomicLong compileCount = new AtomicLong();
+  private final AtomicLong failedCompileCount = new AtomicLong();
+  private final AtomicLong filesCompiled = new AtomicLong();
+  private final AtomicLong compileErrorCount = new AtomicLong();
+  private final AtomicLong joocRunNanos = new AtomicLong();
+  private final AtomicLong packagerCount = new AtomicLong();
+  private final AtomicLong packagerNanos = new AtomicLong();
+  private final AtomicLong peakHeapUsedDuringCompiles = new AtomicLong();
+  private volatile long classLoaderCacheHitsOffset;
+  private volatile long classLoaderCacheMissesOffset;
+  private volatile long snapshotReloadsOffset;
+
+  @NotNull
+  public static JangarooBuilderMetrics getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Register the metrics MBean with the platform MBean server, unless already registered.
+   */
+  public static void register() {
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(OBJECT_NAME);
+      synchronized (INSTANCE) {
+        if (!mBeanServer.isRegistered(objectName)) {
+          mBeanServer.registerMBean(INSTANCE, objectName);
+        }
+      }
+    } catch (JMException e) {
+      LOG.warn("Could not register Jangaroo builder metrics MBean " + OBJECT_NAME, e);
+    }
+  }
+
+  private JangarooBuilderMetrics() {
+  }
+
+  public void compiled(int fileCount, long durationNanos, boolean failed) {
+    compileCount.incrementAndGet();
+    filesCompiled.addAndGet(fileCount);
+    joocRunNanos.addAndGet(durationNanos);
+    if (failed) {
+      failedCompileCount.incrementAndGet();
+    }
+    long heapUsed = getHeapUsedBytes();
+    long peak;
+    do {
+      peak = peakHeapUsedDuringCompiles.get();
+    } while (heapUsed > peak && !peakHeapUsedDuringCompiles.compareAndSet(peak, heapUsed));
+  }
+
+  public void compileErrors(int errorCount) {
+    compileErrorCount.addAndGet(errorCount);
+  }
+
+  public void packaged(long durationNanos) {
+    packagerCount.incrementAndGet();
+    packagerNanos.addAndGet(durationNanos);
+  }
+
+  public long getCompileCount() {
+    return compileCount.get();
+  }
+
+  public long getFailedCompileCount() {
+    return failedCompileCount.get();
+  }
+
+  public long getFilesCompiled() {
+    return filesCompiled.get();
+  }
+
+  public long getCompileErrorCount() {
+    return compileErrorCount.get();
+  }
+
+  public long getJoocRunTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(joocRunNanos.get());
+  }
+
+  public long getPackagerCount() {
+    return packagerCount.get();
+  }
+
+  public long getPackagerTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(packagerNanos.get());
+  }
+
+  public int getClassLoaderCacheSize() {
+    return CompilerLoader.getCachedClassLoaderCount();
+  }
+
+  public long getClassLoaderCacheHits() {
+    return CompilerLoader.getClassLoaderCacheHitCount() - classLoaderCacheHitsOffset;
+  }
+
+  public long getClassLoaderCacheMisses() {
+    return CompilerLoader.getClassLoaderCacheMissCount() - classLoaderCacheMissesOffset;
+  }
+
+  public long getSnapshotReloads() {
+    return CompilerLoader.getSnapshotReloadCount() - snapshotReloadsOffset;
+  }
+
+  public long getPeakHeapUsedDuringCompilesBytes() {
+    return peakHeapUsedDuringCompiles.get();
+  }
+
+  public long getHeapUsedBytes() {
+    return memoryMXBean.getHeapMemoryUsage().getUsed();
+  }
+
+  public synchronized void reset() {
+    compileCount.set(0);
+    failedCompileCount.set(0);
+    filesCompiled.set(0);
+    compileErrorCount.set(0);
+    joocRunNanos.set(0);
+    packagerCount.set(0);
+    packagerNanos.set(0);
+    peakHeapUsedDuringCompiles.set(0);
+    classLoaderCacheHitsOffset = CompilerLoader.getClassLoaderCacheHitCount();
+    classLoaderCacheMissesOffset = CompilerLoader.getClassLoaderCacheMissCount();
+    snapshotReloadsOffset = CompilerLoader.getSnapshotReloadCount();
+  }
+
+}
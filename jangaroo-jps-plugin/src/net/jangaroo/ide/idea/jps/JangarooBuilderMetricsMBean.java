@@ -0,0 +1,37 @@
+package net.jangaroo.ide.idea.jps;
+
+/**
+ * JMX view of {@link JangarooBuilderMetrics}: counters accumulated since the JPS build process started or
+ * the last {@link #reset()}, and gauges reflecting the current state of the process.
+ */
+public interface JangarooBuilderMetricsMBean {
+
+  long getCompileCount();
+
+  long getFailedCompileCount();
+
+  long getFilesCompiled();
+
+  long getCompileErrorCount();
+
+  long getJoocRunTimeMillis();
+
+  long getPackagerCount();
+
+  long getPackagerTimeMillis();
+
+  int getClassLoaderCacheSize();
+
+  long getClassLoaderCacheHits();
+
+  long getClassLoaderCacheMisses();
+
+  long getSnapshotReloads();
+
+  long getPeakHeapUsedDuringCompilesBytes();
+
+  long getHeapUsedBytes();
+
+  void reset();
+
+}
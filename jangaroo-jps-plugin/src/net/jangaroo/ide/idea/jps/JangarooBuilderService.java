@@ -14,6 +14,7 @@ import java.util.List;
 public class JangarooBuilderService extends BuilderService {
 
   public JangarooBuilderService() {
+    JangarooBuilderMetrics.register();
   }
 
   @NotNull
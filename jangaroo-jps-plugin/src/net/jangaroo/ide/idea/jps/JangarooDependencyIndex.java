@@ -0,0 +1,192 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.ClassReferenceScanner;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent per-target index that maps each class referenced by the target's sources
+ * to the source files that reference it. Used by {@link JangarooBuilder} to recompile
+ * the dependents of changed classes instead of only the files JPS marked dirty.
+ * The index is stored in the target's data root of the JPS {@link BuildDataPaths}.
+ */
+public class JangarooDependencyIndex {
+
+  private static final String INDEX_FILE_NAME = "jangaroo-dependencies.dat";
+  private static final int VERSION = 1;
+  private static final Logger LOG = Logger.getInstance(JangarooDependencyIndex.class);
+
+  private final File indexFile;
+  private final Map<String, Set<String>> referencedClassesBySource = new HashMap<String, Set<String>>();
+  private final Map<String, Set<String>> referencingSourcesByClass = new HashMap<String, Set<String>>();
+  private boolean modified = false;
+
+  private JangarooDependencyIndex(File indexFile) {
+    this.indexFile = indexFile;
+  }
+
+  @NotNull
+  public static JangarooDependencyIndex load(@NotNull BuildDataPaths dataPaths, @NotNull JangarooBuildTarget target) {
+    return load(new File(dataPaths.getTargetDataRoot(target), INDEX_FILE_NAME));
+  }
+
+  @NotNull
+  static JangarooDependencyIndex load(@NotNull File indexFile) {
+    JangarooDependencyIndex index = new JangarooDependencyIndex(indexFile);
+    if (index.indexFile.exists()) {
+      try {
+        index.read();
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo dependency index " + index.indexFile + ", starting from scratch.", e);
+        index.clear();
+      }
+    }
+    return index;
+  }
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      int sourceCount = in.readInt();
+      for (int i = 0; i < sourceCount; i++) {
+        String sourcePath = in.readUTF();
+        int classCount = in.readInt();
+        Set<String> referencedClasses = new HashSet<String>(classCount);
+        for (int j = 0; j < classCount; j++) {
+          referencedClasses.add(in.readUTF());
+        }
+        putReferences(sourcePath, referencedClasses);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    FileUtil.createParentDirs(indexFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(referencedClassesBySource.size());
+      for (Map.Entry<String, Set<String>> entry : referencedClassesBySource.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (String referencedClass : entry.getValue()) {
+          out.writeUTF(referencedClass);
+        }
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  public void clear() {
+    referencedClassesBySource.clear();
+    referencingSourcesByClass.clear();
+    modified = true;
+  }
+
+  public void update(@NotNull File sourceFile, @NotNull Collection<String> referencedClasses) {
+    String sourcePath = sourceFile.getPath();
+    removeReferences(sourcePath);
+    putReferences(sourcePath, new HashSet<String>(referencedClasses));
+    modified = true;
+  }
+
+  public void remove(@NotNull File sourceFile) {
+    if (removeReferences(sourceFile.getPath())) {
+      modified = true;
+    }
+  }
+
+  /**
+   * Returns the source files of this target that reference the given class, either directly,
+   * through a wildcard import of its package, or through an MXML element of an unresolved namespace.
+   */
+  @NotNull
+  public Set<File> getDependents(@NotNull String qualifiedClassName) {
+    Set<File> dependents = new LinkedHashSet<File>();
+    addSources(dependents, referencingSourcesByClass.get(qualifiedClassName));
+    addSources(dependents, referencingSourcesByClass.get(ClassReferenceScanner.getPackageName(qualifiedClassName) + ".*"));
+    addSources(dependents, referencingSourcesByClass.get(ClassReferenceScanner.ANY_CLASS));
+    return dependents;
+  }
+
+  /**
+   * Returns all source files of this target recorded in the index.
+   */
+  @NotNull
+  public Set<File> getSourceFiles() {
+    Set<File> sourceFiles = new LinkedHashSet<File>();
+    addSources(sourceFiles, referencedClassesBySource.keySet());
+    return sourceFiles;
+  }
+
+  @NotNull
+  public Set<String> getReferencedClasses() {
+    return Collections.unmodifiableSet(referencingSourcesByClass.keySet());
+  }
+
+  private static void addSources(Set<File> dependents, Set<String> sourcePaths) {
+    if (sourcePaths != null) {
+      for (String sourcePath : sourcePaths) {
+        dependents.add(new File(sourcePath));
+      }
+    }
+  }
+
+  private void putReferences(String sourcePath, Set<String> referencedClasses) {
+    referencedClassesBySource.put(sourcePath, referencedClasses);
+    for (String referencedClass : referencedClasses) {
+      Set<String> referencingSources = referencingSourcesByClass.get(referencedClass);
+      if (referencingSources == null) {
+        referencingSources = new HashSet<String>();
+        referencingSourcesByClass.put(referencedClass, referencingSources);
+      }
+      referencingSources.add(sourcePath);
+    }
+  }
+
+  private boolean removeReferences(String sourcePath) {
+    Set<String> oldReferencedClasses = referencedClassesBySource.remove(sourcePath);
+    if (oldReferencedClasses == null) {
+      return false;
+    }
+    for (String referencedClass : oldReferencedClasses) {
+      Set<String> referencingSources = referencingSourcesByClass.get(referencedClass);
+      if (referencingSources != null) {
+        referencingSources.remove(sourcePath);
+        if (referencingSources.isEmpty()) {
+          referencingSourcesByClass.remove(referencedClass);
+        }
+      }
+    }
+    return true;
+  }
+
+}
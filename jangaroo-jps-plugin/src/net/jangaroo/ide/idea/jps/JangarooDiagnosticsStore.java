@@ -0,0 +1,164 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.JpsCompileLog;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent per-target store of the compiler warnings of each source file. Only dirty files are
+ * recompiled, so {@link JangarooBuilder} replays the stored warnings of all clean files after each
+ * build; otherwise, they would vanish from the IDE's messages until the next rebuild.
+ * The store is kept in the target's data root of the JPS {@link BuildDataPaths}.
+ */
+public class JangarooDiagnosticsStore {
+
+  private static final String STORE_FILE_NAME = "jangaroo-diagnostics.dat";
+  private static final int VERSION = 1;
+  private static final Logger LOG = Logger.getInstance(JangarooDiagnosticsStore.class);
+
+  private final File storeFile;
+  private final Map<String, List<JpsCompileLog.Warning>> warningsBySource = new LinkedHashMap<String, List<JpsCompileLog.Warning>>();
+  private final Set<String> updatedSourcePaths = new HashSet<String>();
+  private boolean modified = false;
+
+  private JangarooDiagnosticsStore(File storeFile) {
+    this.storeFile = storeFile;
+  }
+
+  @NotNull
+  public static JangarooDiagnosticsStore load(@NotNull BuildDataPaths dataPaths, @NotNull JangarooBuildTarget target) {
+    JangarooDiagnosticsStore store = new JangarooDiagnosticsStore(new File(dataPaths.getTargetDataRoot(target), STORE_FILE_NAME));
+    if (store.storeFile.exists()) {
+      try {
+        store.read();
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo diagnostics " + store.storeFile + ", starting from scratch.", e);
+        store.clear();
+      }
+    }
+    return store;
+  }
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      int sourceCount = in.readInt();
+      for (int i = 0; i < sourceCount; i++) {
+        String sourcePath = in.readUTF();
+        int warningCount = in.readInt();
+        List<JpsCompileLog.Warning> warnings = new ArrayList<JpsCompileLog.Warning>(warningCount);
+        for (int j = 0; j < warningCount; j++) {
+          warnings.add(new JpsCompileLog.Warning(in.readUTF(), in.readInt(), in.readInt()));
+        }
+        warningsBySource.put(sourcePath, warnings);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    FileUtil.createParentDirs(storeFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(warningsBySource.size());
+      for (Map.Entry<String, List<JpsCompileLog.Warning>> entry : warningsBySource.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeInt(entry.getValue().size());
+        for (JpsCompileLog.Warning warning : entry.getValue()) {
+          out.writeUTF(warning.getMessage());
+          out.writeInt(warning.getLine());
+          out.writeInt(warning.getColumn());
+        }
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  public void clear() {
+    warningsBySource.clear();
+    modified = true;
+  }
+
+  /**
+   * Replace the stored warnings of the given source files, which have just been compiled, by the warnings
+   * the given compile log received for them.
+   */
+  public void update(@NotNull Collection<File> compiledFiles, @NotNull JpsCompileLog compileLog) {
+    for (File compiledFile : compiledFiles) {
+      String sourcePath = compiledFile.getAbsolutePath();
+      updatedSourcePaths.add(sourcePath);
+      List<JpsCompileLog.Warning> warnings = compileLog.getWarnings(sourcePath);
+      if (warnings.isEmpty()) {
+        if (warningsBySource.remove(sourcePath) != null) {
+          modified = true;
+        }
+      } else {
+        warningsBySource.put(sourcePath, warnings);
+        modified = true;
+      }
+    }
+  }
+
+  /**
+   * Log the stored warnings of all source files not compiled in this build. Stored warnings of the given
+   * dirty files that have not been compiled, e.g. because the module has no valid Jangaroo SDK, are outdated
+   * and forgotten, as well as those of source files that no longer exist. Files whose output was restored
+   * from the build cache count as compiled, as the cache restores their warnings, too.
+   * @return the number of replayed warnings
+   */
+  public int replay(@NotNull JpsCompileLog compileLog, @NotNull Collection<File> dirtyFiles) {
+    for (File dirtyFile : dirtyFiles) {
+      String sourcePath = dirtyFile.getAbsolutePath();
+      if (!updatedSourcePaths.contains(sourcePath) && warningsBySource.remove(sourcePath) != null) {
+        modified = true;
+      }
+    }
+    int replayedCount = 0;
+    for (Iterator<Map.Entry<String, List<JpsCompileLog.Warning>>> iterator = warningsBySource.entrySet().iterator(); iterator.hasNext(); ) {
+      Map.Entry<String, List<JpsCompileLog.Warning>> entry = iterator.next();
+      if (updatedSourcePaths.contains(entry.getKey())) {
+        continue;
+      }
+      if (new File(entry.getKey()).isFile()) {
+        for (JpsCompileLog.Warning warning : entry.getValue()) {
+          compileLog.replayWarning(entry.getKey(), warning);
+        }
+        replayedCount += entry.getValue().size();
+      } else {
+        iterator.remove();
+        modified = true;
+      }
+    }
+    return replayedCount;
+  }
+
+}
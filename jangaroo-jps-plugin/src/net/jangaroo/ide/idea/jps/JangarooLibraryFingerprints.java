@@ -0,0 +1,146 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import net.jangaroo.jooc.api.Jooc;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * API fingerprints of compiled Jangaroo libraries on the class path. Instead of being scanned as build roots,
+ * each library jar is stamped by its content hash, and on change, the per-class fingerprints are taken from
+ * the CRCs of the API stubs under <code>META-INF/joo-api</code> recorded in the jar's directory, without
+ * extracting any entry.
+ * <p>
+ * Library directories are stamped by the paths, sizes and time stamps of all their files, and their
+ * per-class fingerprints are the content hashes of their API stubs.
+ */
+public class JangarooLibraryFingerprints {
+
+  private static final String API_STUB_PREFIX = "META-INF/joo-api/";
+  private static final String LIBRARY_ID_PREFIX = "library:";
+  private static final int MAX_CACHED_LIBRARIES = Integer.getInteger("jangaroo.libraryFingerprints.maxEntries", 100);
+  private static final Map<String, Map<String, String>> FINGERPRINTS_BY_DIGEST = new LinkedHashMap<String, Map<String, String>>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Map<String, String>> eldest) {
+      return size() > MAX_CACHED_LIBRARIES;
+    }
+  };
+
+  /**
+   * The ID under which a downstream target remembers the library's digest and fingerprints, distinct from all target IDs.
+   */
+  @NotNull
+  public static String getLibraryId(@NotNull File library) {
+    return LIBRARY_ID_PREFIX + library.getPath();
+  }
+
+  /**
+   * The digest of the given library jar or directory, or <code>null</code> if it does not exist or cannot be read.
+   */
+  @Nullable
+  public static String getDigest(@NotNull File library) {
+    try {
+      if (library.isDirectory()) {
+        MessageDigest digest = DigestUtils.createDigest();
+        updateDirectoryDigest(digest, library, "");
+        return DigestUtils.toHex(digest.digest());
+      }
+      return library.isFile() ? DigestUtils.hashCached(library) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void updateDirectoryDigest(MessageDigest digest, File directory, String relativePath) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    // listFiles() order is unspecified:
+    Arrays.sort(files);
+    for (File file : files) {
+      String fileRelativePath = relativePath + file.getName();
+      if (file.isDirectory()) {
+        updateDirectoryDigest(digest, file, fileRelativePath + "/");
+      } else {
+        DigestUtils.update(digest, fileRelativePath);
+        DigestUtils.update(digest, file.length() + "|" + file.lastModified());
+      }
+    }
+  }
+
+  /**
+   * The API fingerprints of all classes in the given library jar or directory by qualified class name, or
+   * <code>null</code> if the library contains no API stubs, so that changes cannot be attributed to single classes.
+   */
+  @Nullable
+  public static Map<String, String> getFingerprints(@NotNull File library, @NotNull String digest) throws IOException {
+    Map<String, String> fingerprints;
+    synchronized (FINGERPRINTS_BY_DIGEST) {
+      fingerprints = FINGERPRINTS_BY_DIGEST.get(digest);
+    }
+    if (fingerprints == null) {
+      fingerprints = library.isDirectory() ? readDirectoryFingerprints(library) : readFingerprints(library);
+      synchronized (FINGERPRINTS_BY_DIGEST) {
+        FINGERPRINTS_BY_DIGEST.put(digest, fingerprints);
+      }
+    }
+    return fingerprints.isEmpty() ? null : fingerprints;
+  }
+
+  private static Map<String, String> readDirectoryFingerprints(File library) throws IOException {
+    Map<String, String> fingerprints = new HashMap<String, String>();
+    File apiStubDirectory = new File(library, FileUtil.toSystemDependentName(API_STUB_PREFIX));
+    readDirectoryFingerprints(apiStubDirectory, "", fingerprints);
+    return Collections.unmodifiableMap(fingerprints);
+  }
+
+  private static void readDirectoryFingerprints(File directory, String packagePrefix, Map<String, String> fingerprints) throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (file.isDirectory()) {
+        readDirectoryFingerprints(file, packagePrefix + name + ".", fingerprints);
+      } else if (name.endsWith(Jooc.AS_SUFFIX)) {
+        String className = packagePrefix + name.substring(0, name.length() - Jooc.AS_SUFFIX.length());
+        fingerprints.put(className, file.length() + ":" + DigestUtils.hash(file));
+      }
+    }
+  }
+
+  private static Map<String, String> readFingerprints(File library) throws IOException {
+    Map<String, String> fingerprints = new HashMap<String, String>();
+    ZipFile zipFile = new ZipFile(library);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (!entry.isDirectory() && name.startsWith(API_STUB_PREFIX) && name.endsWith(Jooc.AS_SUFFIX)) {
+          String className = name.substring(API_STUB_PREFIX.length(), name.length() - Jooc.AS_SUFFIX.length()).replace('/', '.');
+          fingerprints.put(className, entry.getSize() + ":" + Long.toHexString(entry.getCrc()));
+        }
+      }
+    } finally {
+      zipFile.close();
+    }
+    return Collections.unmodifiableMap(fingerprints);
+  }
+
+}
@@ -0,0 +1,204 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.flex.model.bc.JpsFlexBCDependencyEntry;
+import com.intellij.flex.model.bc.JpsFlexBuildConfiguration;
+import com.intellij.flex.model.bc.JpsFlexDependencyEntry;
+import com.intellij.flex.model.bc.LinkageType;
+import com.intellij.openapi.diagnostic.Logger;
+import net.jangaroo.ide.idea.jps.util.ClassReferenceScanner;
+import net.jangaroo.ide.idea.jps.util.IdeaFileUtils;
+import net.jangaroo.jooc.config.NamespaceConfiguration;
+import net.jangaroo.utils.FileLocations;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.model.java.JavaResourceRootType;
+import org.jetbrains.jps.model.java.JavaSourceRootType;
+import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.model.module.JpsModuleSourceRoot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-build cache of the class path, source path and namespace configurations the Jangaroo builder
+ * resolves from the JPS model, and of library digests. Every build configuration is resolved at most once
+ * per build and test flag, and the class path and namespace contributions of a build configuration are
+ * shared by all targets depending on it.
+ * <p>
+ * JPS loads a fresh project model for every build, so a cache instance must not outlive the build it was
+ * created for; {@link JangarooBuilder} creates a new one in <code>buildStarted</code>. All methods are
+ * thread-safe. Concurrent threads may resolve the same entry redundantly, but always to equal results.
+ */
+public class JangarooModelCache {
+
+  private static final Logger LOG = Logger.getInstance(JangarooModelCache.class);
+  private static final String NAMESPACES_OPTION = "compiler.namespaces.namespace";
+
+  private final ConcurrentMap<Key, FileLocations> fileLocationsByKey = new ConcurrentHashMap<Key, FileLocations>();
+  private final ConcurrentMap<Key, List<NamespaceConfiguration>> namespaceConfigurationsByKey = new ConcurrentHashMap<Key, List<NamespaceConfiguration>>();
+  private final ConcurrentMap<JpsFlexBuildConfiguration, List<File>> dependencyClassPathByBC = new ConcurrentHashMap<JpsFlexBuildConfiguration, List<File>>();
+  private final ConcurrentMap<JpsFlexBuildConfiguration, List<NamespaceConfiguration>> ownNamespaceConfigurationsByBC = new ConcurrentHashMap<JpsFlexBuildConfiguration, List<NamespaceConfiguration>>();
+  private final ConcurrentMap<Key, Map<String, Map<String, String>>> componentClassesByNamespaceByKey = new ConcurrentHashMap<Key, Map<String, Map<String, String>>>();
+  private final ConcurrentMap<File, String> libraryDigestByFile = new ConcurrentHashMap<File, String>();
+
+  private static class Key {
+    private final JpsFlexBuildConfiguration bc;
+    private final boolean forTests;
+    private final boolean compileGeneratedSources;
+
+    private Key(JpsFlexBuildConfiguration bc, boolean forTests, boolean compileGeneratedSources) {
+      this.bc = bc;
+      this.forTests = forTests;
+      this.compileGeneratedSources = compileGeneratedSources;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key)o;
+      return bc == key.bc && forTests == key.forTests && compileGeneratedSources == key.compileGeneratedSources;
+    }
+
+    @Override
+    public int hashCode() {
+      return 4 * System.identityHashCode(bc) + (forTests ? 2 : 0) + (compileGeneratedSources ? 1 : 0);
+    }
+  }
+
+  /**
+   * The class path and source path of the given build configuration when compiling against the sources
+   * of all dependencies. The returned instance is shared and must not be modified.
+   */
+  @NotNull
+  public FileLocations getFileLocations(@NotNull JpsFlexBuildConfiguration bc, boolean forTests, boolean compileGeneratedSources) {
+    Key key = new Key(bc, forTests, compileGeneratedSources);
+    FileLocations fileLocations = fileLocationsByKey.get(key);
+    if (fileLocations == null) {
+      Collection<File> classPath = new LinkedHashSet<File>();
+      Collection<File> sourcePath = new LinkedHashSet<File>();
+      JangarooBuilder.addToClassOrSourcePath(bc, classPath, sourcePath, forTests, compileGeneratedSources,
+        Collections.<JpsFlexBuildConfiguration, File>emptyMap(), this);
+      fileLocations = new FileLocations();
+      fileLocations.setClassPath(new ArrayList<File>(classPath));
+      try {
+        fileLocations.setSourcePath(new ArrayList<File>(sourcePath));
+      } catch (IOException e) {
+        throw new RuntimeException("while constructing Jangaroo source path", e);
+      }
+      fileLocationsByKey.putIfAbsent(key, fileLocations);
+    }
+    return fileLocations;
+  }
+
+  /**
+   * The class path entries a build configuration contributes to all build configurations depending on it:
+   * the source and resource roots of its module.
+   */
+  @NotNull
+  public List<File> getDependencyClassPath(@NotNull JpsFlexBuildConfiguration dependencyBC) {
+    List<File> classPath = dependencyClassPathByBC.get(dependencyBC);
+    if (classPath == null) {
+      classPath = new ArrayList<File>();
+      JpsModule module = dependencyBC.getModule();
+      if (module != null) {
+        for (JpsModuleSourceRoot sourceRoot : module.getSourceRoots(JavaSourceRootType.SOURCE)) {
+          classPath.add(sourceRoot.getFile());
+        }
+        for (JpsModuleSourceRoot sourceRoot : module.getSourceRoots(JavaResourceRootType.RESOURCE)) {
+          classPath.add(sourceRoot.getFile());
+        }
+      }
+      classPath = Collections.unmodifiableList(classPath);
+      dependencyClassPathByBC.putIfAbsent(dependencyBC, classPath);
+    }
+    return classPath;
+  }
+
+  /**
+   * The namespace configurations of the given build configuration and all build configurations it depends on.
+   */
+  @NotNull
+  public List<NamespaceConfiguration> getNamespaceConfigurations(@NotNull JpsFlexBuildConfiguration bc, boolean forTests) {
+    Key key = new Key(bc, forTests, true);
+    List<NamespaceConfiguration> namespaceConfigurations = namespaceConfigurationsByKey.get(key);
+    if (namespaceConfigurations == null) {
+      namespaceConfigurations = new ArrayList<NamespaceConfiguration>(getOwnNamespaceConfigurations(bc));
+      for (JpsFlexDependencyEntry entry : bc.getDependencies().getEntries()) {
+        if (entry instanceof JpsFlexBCDependencyEntry && (!LinkageType.Test.equals(entry.getLinkageType()) || forTests)) {
+          JpsFlexBCDependencyEntry bcDependencyEntry = (JpsFlexBCDependencyEntry)entry;
+          JpsFlexBuildConfiguration buildConfiguration = bcDependencyEntry.getBC();
+          if (buildConfiguration == null) {
+            LOG.warn(String.format("Encountered null dependency entry in module %s of type %s.", bc.getModule().getName(), bcDependencyEntry.getLinkageType()));
+          } else {
+            namespaceConfigurations.addAll(getOwnNamespaceConfigurations(buildConfiguration));
+          }
+        }
+      }
+      namespaceConfigurations = Collections.unmodifiableList(namespaceConfigurations);
+      namespaceConfigurationsByKey.putIfAbsent(key, namespaceConfigurations);
+    }
+    return namespaceConfigurations;
+  }
+
+  /**
+   * The digest of the given library jar or directory as computed by {@link JangarooLibraryFingerprints#getDigest(File)},
+   * so that each library directory is walked at most once per build.
+   */
+  @Nullable
+  public String getLibraryDigest(@NotNull File library) {
+    String digest = libraryDigestByFile.get(library);
+    if (digest == null) {
+      digest = JangarooLibraryFingerprints.getDigest(library);
+      if (digest != null) {
+        libraryDigestByFile.putIfAbsent(library, digest);
+      }
+    }
+    return digest;
+  }
+
+  /**
+   * The classes of each namespace of the given build configuration and all build configurations it depends on,
+   * by namespace URI and component name, as listed in the namespace manifests.
+   */
+  @NotNull
+  public Map<String, Map<String, String>> getComponentClassesByNamespace(@NotNull JpsFlexBuildConfiguration bc, boolean forTests) {
+    Key key = new Key(bc, forTests, true);
+    Map<String, Map<String, String>> componentClassesByNamespace = componentClassesByNamespaceByKey.get(key);
+    if (componentClassesByNamespace == null) {
+      componentClassesByNamespace = Collections.unmodifiableMap(ClassReferenceScanner.readManifests(getNamespaceConfigurations(bc, forTests)));
+      componentClassesByNamespaceByKey.putIfAbsent(key, componentClassesByNamespace);
+    }
+    return componentClassesByNamespace;
+  }
+
+  private List<NamespaceConfiguration> getOwnNamespaceConfigurations(@NotNull JpsFlexBuildConfiguration bc) {
+    List<NamespaceConfiguration> namespaceConfigurations = ownNamespaceConfigurationsByBC.get(bc);
+    if (namespaceConfigurations == null) {
+      namespaceConfigurations = new ArrayList<NamespaceConfiguration>();
+      String namespaces = bc.getCompilerOptions().getAllOptions().get(NAMESPACES_OPTION);
+      if (namespaces != null) {
+        String[] uriToManifestMap = namespaces.split("\n");
+        for (String uriToManifest : uriToManifestMap) {
+          String[] uriAndManifest = uriToManifest.split("\t");
+          if (uriAndManifest.length == 2) {
+            namespaceConfigurations.add(new NamespaceConfiguration(uriAndManifest[0], new File(IdeaFileUtils.toPath(uriAndManifest[1]))));
+          }
+        }
+      }
+      namespaceConfigurations = Collections.unmodifiableList(namespaceConfigurations);
+      ownNamespaceConfigurationsByBC.putIfAbsent(bc, namespaceConfigurations);
+    }
+    return namespaceConfigurations;
+  }
+
+}
@@ -0,0 +1,219 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Write-if-changed sink for compiler output. The compiler rewrites all its outputs, even when their content
+ * did not change, which makes file watchers like Sencha Cmd watch, dev servers and the IDE's VFS refresh
+ * reprocess them. So instead, the compiler writes into a staging directory, and {@link #commit()} only
+ * moves those staged files into the real output and API output directories whose content differs from the
+ * existing file. Unchanged outputs keep their timestamps.
+ * <p>
+ * All staging happens in the given staging directory, which should be located outside of the output tree,
+ * so that file watchers and the packager never see half-written directories. The output directory is
+ * staged as part of a copy of its parent, the Sencha package directory, so that outputs the compiler places
+ * relative to the output directory, but outside of it, are staged, too. Source maps refer to their sources
+ * by paths relative to their own location, so {@link #rebaseSourceMaps()} rebases these paths to the
+ * committed location.
+ */
+public class JangarooOutputSink {
+
+  private static final String STAGED_PACKAGE_DIRECTORY_NAME = "package";
+  private static final String STAGED_API_DIRECTORY_NAME = "api";
+  private static final String SOURCE_MAP_SUFFIX = ".map";
+  private static final Pattern SOURCE_MAP_SOURCES_PATTERN = Pattern.compile("\"sources\"\\s*:\\s*\\[([^\\]]*)\\]");
+  private static final Pattern SOURCE_MAP_SOURCE_ROOT_PATTERN = Pattern.compile("\"sourceRoot\"\\s*:\\s*\"([^\"]*)\"");
+  private static final Pattern JSON_STRING_PATTERN = Pattern.compile("\"([^\"]*)\"");
+
+  private final File stagingDirectory;
+  private final File stagedPackageDirectory;
+  private final File packageDirectory;
+  private final File stagedOutputDirectory;
+  private final File stagedApiOutputDirectory;
+  private final File apiOutputDirectory;
+  private int unchangedCount;
+
+  private JangarooOutputSink(File stagingDirectory, File outputDirectory, @Nullable File apiOutputDirectory) {
+    this.stagingDirectory = stagingDirectory;
+    File absoluteOutputDirectory = outputDirectory.getAbsoluteFile();
+    packageDirectory = absoluteOutputDirectory.getParentFile();
+    stagedPackageDirectory = new File(stagingDirectory, STAGED_PACKAGE_DIRECTORY_NAME);
+    stagedOutputDirectory = new File(stagedPackageDirectory, absoluteOutputDirectory.getName());
+    stagedApiOutputDirectory = apiOutputDirectory == null ? null : new File(stagingDirectory, STAGED_API_DIRECTORY_NAME);
+    this.apiOutputDirectory = apiOutputDirectory;
+  }
+
+  /**
+   * Create a sink staging all output into the given directory, which is cleared first.
+   */
+  @NotNull
+  public static JangarooOutputSink create(@NotNull File stagingDirectory, @NotNull File outputDirectory,
+                                          @Nullable File apiOutputDirectory) {
+    JangarooOutputSink outputSink = new JangarooOutputSink(stagingDirectory, outputDirectory, apiOutputDirectory);
+    outputSink.dispose();
+    return outputSink;
+  }
+
+  /**
+   * The output directory to configure the compiler with.
+   */
+  @NotNull
+  public File getStagedOutputDirectory() {
+    return stagedOutputDirectory;
+  }
+
+  /**
+   * The API output directory to configure the compiler with, or <code>null</code> if no API stubs are generated.
+   */
+  @Nullable
+  public File getStagedApiOutputDirectory() {
+    return stagedApiOutputDirectory;
+  }
+
+  /**
+   * Map a staged file to the location it is committed to.
+   */
+  @NotNull
+  public File toOutputFile(@NotNull File stagedFile) {
+    if (stagedApiOutputDirectory != null && FileUtil.isAncestor(stagedApiOutputDirectory, stagedFile, false)) {
+      return relocate(stagedFile, stagedApiOutputDirectory, apiOutputDirectory);
+    }
+    return relocate(stagedFile, stagedPackageDirectory, packageDirectory);
+  }
+
+  private static File relocate(File file, File fromDirectory, File toDirectory) {
+    String relativePath = FileUtil.getRelativePath(fromDirectory, file);
+    return relativePath == null ? file : new File(toDirectory, relativePath);
+  }
+
+  /**
+   * Move all staged files whose content differs from their committed counterpart to the real output
+   * directories, and leave all others untouched.
+   * @return the changed output files, at their committed location
+   */
+  @NotNull
+  public Set<File> commit() throws IOException {
+    Set<File> changedFiles = new HashSet<File>();
+    commit(stagedPackageDirectory, changedFiles);
+    if (stagedApiOutputDirectory != null) {
+      commit(stagedApiOutputDirectory, changedFiles);
+    }
+    return changedFiles;
+  }
+
+  private void commit(File stagedDirectory, Set<File> changedFiles) throws IOException {
+    File[] stagedFiles = stagedDirectory.listFiles();
+    if (stagedFiles == null) {
+      return;
+    }
+    for (File stagedFile : stagedFiles) {
+      if (stagedFile.isDirectory()) {
+        commit(stagedFile, changedFiles);
+      } else {
+        File outputFile = toOutputFile(stagedFile);
+        if (hasSameContent(stagedFile, outputFile)) {
+          ++unchangedCount;
+        } else {
+          FileUtil.createParentDirs(outputFile);
+          // replaces the directory entry, so that an output hard-linked into the build cache is never written through:
+          Files.move(stagedFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+          changedFiles.add(outputFile);
+        }
+      }
+    }
+  }
+
+  /**
+   * Rewrite the relative source paths of all staged source maps, so that they are valid at the location the
+   * source maps are committed to. Call after the compiler has run, before the staged files are used.
+   */
+  public void rebaseSourceMaps() throws IOException {
+    rebaseSourceMaps(stagedPackageDirectory);
+  }
+
+  private void rebaseSourceMaps(File stagedDirectory) throws IOException {
+    File[] stagedFiles = stagedDirectory.listFiles();
+    if (stagedFiles == null) {
+      return;
+    }
+    for (File stagedFile : stagedFiles) {
+      if (stagedFile.isDirectory()) {
+        rebaseSourceMaps(stagedFile);
+      } else if (stagedFile.getName().endsWith(SOURCE_MAP_SUFFIX)) {
+        rebaseSourceMap(stagedFile, toOutputFile(stagedFile));
+      }
+    }
+  }
+
+  /**
+   * If the source map has a relative source root, only that is rebased, as all source paths are relative to it.
+   */
+  private static void rebaseSourceMap(File stagedFile, File outputFile) throws IOException {
+    String sourceMap = FileUtil.loadFile(stagedFile, "UTF-8");
+    Matcher matcher = SOURCE_MAP_SOURCE_ROOT_PATTERN.matcher(sourceMap);
+    String rebasedPaths;
+    if (matcher.find() && matcher.group(1).length() > 0) {
+      rebasedPaths = rebase(matcher.group(1), stagedFile, outputFile);
+    } else {
+      matcher = SOURCE_MAP_SOURCES_PATTERN.matcher(sourceMap);
+      if (!matcher.find()) {
+        return;
+      }
+      StringBuffer rebasedSources = new StringBuffer();
+      Matcher sourceMatcher = JSON_STRING_PATTERN.matcher(matcher.group(1));
+      while (sourceMatcher.find()) {
+        sourceMatcher.appendReplacement(rebasedSources,
+          Matcher.quoteReplacement("\"" + rebase(sourceMatcher.group(1), stagedFile, outputFile) + "\""));
+      }
+      sourceMatcher.appendTail(rebasedSources);
+      rebasedPaths = rebasedSources.toString();
+    }
+    String rebasedSourceMap = sourceMap.substring(0, matcher.start(1)) + rebasedPaths + sourceMap.substring(matcher.end(1));
+    FileUtil.writeToFile(stagedFile, rebasedSourceMap.getBytes("UTF-8"));
+  }
+
+  private static String rebase(String path, File stagedFile, File outputFile) {
+    if (path.startsWith("/") || path.contains(":")) {
+      // absolute path or URL:
+      return path;
+    }
+    String target = FileUtil.toCanonicalPath(new File(stagedFile.getParentFile(), FileUtil.toSystemDependentName(path)).getPath());
+    String rebasedPath = FileUtil.getRelativePath(outputFile.getParentFile(), new File(target));
+    return rebasedPath == null ? path : FileUtil.toSystemIndependentName(rebasedPath);
+  }
+
+  /**
+   * Whether the given output file exists and has the same content as the given new file.
+   */
+  static boolean hasSameContent(File newFile, File outputFile) throws IOException {
+    return outputFile.isFile() && outputFile.length() == newFile.length()
+      && DigestUtils.hash(outputFile).equals(DigestUtils.hash(newFile));
+  }
+
+  /**
+   * The number of staged files left untouched by {@link #commit()} because their content did not change.
+   */
+  public int getUnchangedCount() {
+    return unchangedCount;
+  }
+
+  /**
+   * Delete the staging directory, including all files not committed.
+   */
+  public void dispose() {
+    FileUtil.delete(stagingDirectory);
+  }
+
+}
@@ -0,0 +1,142 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.DigestUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent record of the content hashes of all compiler outputs inside a target's Sencha package directory
+ * at the time the Sencha packager last ran successfully. Allows to skip packaging when no output relevant
+ * to the package actually changed.
+ */
+public class JangarooPackageManifest {
+
+  private static final String MANIFEST_FILE_NAME = "jangaroo-package-manifest.dat";
+  private static final int VERSION = 1;
+  private static final Logger LOG = Logger.getInstance(JangarooPackageManifest.class);
+
+  private final File manifestFile;
+  private final Map<String, String> hashByOutputPath = new HashMap<String, String>();
+  private boolean packaged = false;
+  private boolean modified = false;
+
+  private JangarooPackageManifest(File manifestFile) {
+    this.manifestFile = manifestFile;
+  }
+
+  @NotNull
+  public static JangarooPackageManifest load(@NotNull BuildDataPaths dataPaths, @NotNull JangarooBuildTarget target) {
+    JangarooPackageManifest manifest = new JangarooPackageManifest(new File(dataPaths.getTargetDataRoot(target), MANIFEST_FILE_NAME));
+    if (manifest.manifestFile.exists()) {
+      try {
+        manifest.read();
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo package manifest " + manifest.manifestFile + ", repackaging.", e);
+        manifest.hashByOutputPath.clear();
+        manifest.packaged = false;
+      }
+    }
+    return manifest;
+  }
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifestFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      packaged = in.readBoolean();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        hashByOutputPath.put(in.readUTF(), in.readUTF());
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    FileUtil.createParentDirs(manifestFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifestFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeBoolean(packaged);
+      out.writeInt(hashByOutputPath.size());
+      for (Map.Entry<String, String> entry : hashByOutputPath.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  /**
+   * Whether the packager ran successfully after the last relevant change.
+   */
+  public boolean isPackaged() {
+    return packaged;
+  }
+
+  public void setPackaged(boolean packaged) {
+    if (this.packaged != packaged) {
+      this.packaged = packaged;
+      modified = true;
+    }
+  }
+
+  /**
+   * Record the current content of the given output file.
+   * @return whether the content differs from the recorded one, i.e. whether the package is affected
+   */
+  public boolean update(@NotNull File outputFile) {
+    if (!outputFile.isFile()) {
+      return remove(outputFile);
+    }
+    String hash;
+    try {
+      hash = DigestUtils.hash(outputFile);
+    } catch (IOException e) {
+      // cannot tell, so assume it changed:
+      hashByOutputPath.remove(outputFile.getPath());
+      modified = true;
+      return true;
+    }
+    String oldHash = hashByOutputPath.put(outputFile.getPath(), hash);
+    if (hash.equals(oldHash)) {
+      return false;
+    }
+    modified = true;
+    return true;
+  }
+
+  /**
+   * Forget a deleted output file.
+   * @return whether the output file was part of the package
+   */
+  public boolean remove(@NotNull File outputFile) {
+    if (hashByOutputPath.remove(outputFile.getPath()) != null) {
+      modified = true;
+      return true;
+    }
+    return false;
+  }
+
+}
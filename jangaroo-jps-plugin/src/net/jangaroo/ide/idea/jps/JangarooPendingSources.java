@@ -0,0 +1,129 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.jps.builders.storage.BuildDataPaths;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Persistent per-target set of the source files whose compilation is pending: files compiled in check-only
+ * mode, whose JavaScript and API output has not been written, and files whose compilation failed. JPS only
+ * retries the files it considers dirty itself, not those {@link JangarooBuilder} adds because of an API
+ * change in an upstream target or in an earlier compile round, so the builder compiles all pending files
+ * again in the next regular build of the target.
+ * The set is stored in the target's data root of the JPS {@link BuildDataPaths}.
+ */
+public class JangarooPendingSources {
+
+  private static final String PENDING_SOURCES_FILE_NAME = "jangaroo-pending-sources.dat";
+  private static final int VERSION = 1;
+  private static final Logger LOG = Logger.getInstance(JangarooPendingSources.class);
+
+  private final File pendingSourcesFile;
+  private final Set<String> sourcePaths = new LinkedHashSet<String>();
+  private boolean modified = false;
+
+  private JangarooPendingSources(File pendingSourcesFile) {
+    this.pendingSourcesFile = pendingSourcesFile;
+  }
+
+  @NotNull
+  public static JangarooPendingSources load(@NotNull BuildDataPaths dataPaths, @NotNull JangarooBuildTarget target) {
+    return load(new File(dataPaths.getTargetDataRoot(target), PENDING_SOURCES_FILE_NAME));
+  }
+
+  @NotNull
+  static JangarooPendingSources load(@NotNull File pendingSourcesFile) {
+    JangarooPendingSources pendingSources = new JangarooPendingSources(pendingSourcesFile);
+    if (pendingSources.pendingSourcesFile.exists()) {
+      try {
+        pendingSources.read();
+      } catch (IOException e) {
+        LOG.warn("Could not read Jangaroo pending sources " + pendingSources.pendingSourcesFile
+          + ", output of sources not compiled successfully may be outdated until the next rebuild.", e);
+        pendingSources.clear();
+      }
+    }
+    return pendingSources;
+  }
+
+  private void read() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(pendingSourcesFile)));
+    try {
+      if (in.readInt() != VERSION) {
+        return;
+      }
+      int sourceCount = in.readInt();
+      for (int i = 0; i < sourceCount; i++) {
+        sourcePaths.add(in.readUTF());
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public void save() throws IOException {
+    if (!modified) {
+      return;
+    }
+    FileUtil.createParentDirs(pendingSourcesFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(pendingSourcesFile)));
+    try {
+      out.writeInt(VERSION);
+      out.writeInt(sourcePaths.size());
+      for (String sourcePath : sourcePaths) {
+        out.writeUTF(sourcePath);
+      }
+    } finally {
+      out.close();
+    }
+    modified = false;
+  }
+
+  public void clear() {
+    if (!sourcePaths.isEmpty()) {
+      sourcePaths.clear();
+      modified = true;
+    }
+  }
+
+  public void addAll(@NotNull Collection<File> sourceFiles) {
+    for (File sourceFile : sourceFiles) {
+      modified |= sourcePaths.add(sourceFile.getPath());
+    }
+  }
+
+  public boolean isEmpty() {
+    return sourcePaths.isEmpty();
+  }
+
+  /**
+   * Returns all pending source files that still exist.
+   */
+  @NotNull
+  public List<File> getSourceFiles() {
+    List<File> sourceFiles = new ArrayList<File>();
+    for (String sourcePath : sourcePaths) {
+      File sourceFile = new File(sourcePath);
+      if (sourceFile.isFile()) {
+        sourceFiles.add(sourceFile);
+      }
+    }
+    return sourceFiles;
+  }
+
+}
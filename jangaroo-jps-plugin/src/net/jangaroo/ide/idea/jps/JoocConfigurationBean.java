@@ -44,6 +44,16 @@ public class JoocConfigurationBean extends JpsElementBase<JoocConfigurationBean>
   public String apiOutputDirectory = "target/jangaroo-output/META-INF/joo-api";
   public String testOutputDirectory = "target/jangaroo-test-output/joo/classes";
   public boolean showCompilerInfoMessages = false;
+  /**
+   * Whether to compile against the API stubs of dependency modules instead of their complete sources.
+   * Falls back to the source roots of a dependency whose API stubs are missing or stale.
+   */
+  public boolean compileAgainstApiStubs = false;
+  /**
+   * Whether to only check the sources for errors, without writing JavaScript and API output and without
+   * packaging. The next build without this option writes the skipped output.
+   */
+  public boolean checkOnly = false;
   public PublicApiViolationsMode publicApiViolationsMode;
   public String extNamespace;
   public String extSassNamespace;
@@ -140,7 +150,7 @@ public class JoocConfigurationBean extends JpsElementBase<JoocConfigurationBean>
 
   private boolean[] getFlags() {
     return new boolean[]{verbose, enableAssertions,
-      allowDuplicateLocalVariables, showCompilerInfoMessages};
+      allowDuplicateLocalVariables, showCompilerInfoMessages, compileAgainstApiStubs, checkOnly};
   }
 
 }
@@ -0,0 +1,178 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.text.StringUtil;
+import net.jangaroo.jooc.api.Jooc;
+import net.jangaroo.jooc.config.NamespaceConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cheap, conservative scanner that determines which classes a Jangaroo source file references,
+ * without running the compiler. Collects explicit and wildcard imports, MXML namespace-mapped
+ * element names, and upper-case identifiers that may denote classes of the same package.
+ * Wildcard imports are reported as <code>package.*</code>.
+ * <p>
+ * MXML elements are resolved through their (prefixed or default) namespace: package namespaces like
+ * <code>pkg.*</code> or <code>exml:pkg</code> map to classes of that package, other URIs to the classes
+ * listed in the namespace's manifest. Elements of a namespace that cannot be resolved might denote any class,
+ * so they are reported as {@link #ANY_CLASS}.
+ */
+public class ClassReferenceScanner {
+
+  /**
+   * The reference reported for an element whose class cannot be determined, matching every class.
+   */
+  public static final String ANY_CLASS = "*";
+
+  private static final String MXML_LANGUAGE_NAMESPACE = "http://ns.adobe.com/mxml/2009";
+  private static final String EXML_NAMESPACE_PREFIX = "exml:";
+  private static final Pattern IMPORT_PATTERN = Pattern.compile("\\bimport\\s+([\\w$]+(?:\\.[\\w$]+)*(?:\\.\\*)?)");
+  private static final Pattern MXML_NAMESPACE_PATTERN = Pattern.compile("\\bxmlns(?::([\\w-]+))?\\s*=\\s*[\"']([^\"']*)[\"']");
+  private static final Pattern MXML_ELEMENT_PATTERN = Pattern.compile("<(?:([\\w-]+):)?([\\w$]+)");
+  private static final Pattern MANIFEST_COMPONENT_PATTERN = Pattern.compile("<component\\b([^>]*)>");
+  private static final Pattern MANIFEST_ID_PATTERN = Pattern.compile("\\bid\\s*=\\s*[\"']([^\"']*)[\"']");
+  private static final Pattern MANIFEST_CLASS_PATTERN = Pattern.compile("\\bclass\\s*=\\s*[\"']([^\"']*)[\"']");
+  private static final Pattern IDENTIFIER_PATTERN = Pattern.compile("\\b[A-Z][\\w$]*\\b");
+
+  /**
+   * @param componentClassesByNamespace the classes of each namespace URI by component name, as read by {@link #readManifest(File)}
+   */
+  public static Set<String> scan(File sourceFile, String packageName, Map<String, Map<String, String>> componentClassesByNamespace) throws IOException {
+    String path = sourceFile.getPath();
+    if (StringUtil.endsWithIgnoreCase(path, Jooc.PROPERTIES_SUFFIX)) {
+      // properties files do not reference any classes:
+      return new LinkedHashSet<String>();
+    }
+    return scan(FileUtil.loadFile(sourceFile), packageName, StringUtil.endsWithIgnoreCase(path, Jooc.MXML_SUFFIX),
+      componentClassesByNamespace);
+  }
+
+  public static Set<String> scan(String code, String packageName, boolean mxml, Map<String, Map<String, String>> componentClassesByNamespace) {
+    Set<String> referencedClasses = new LinkedHashSet<String>();
+    Matcher importMatcher = IMPORT_PATTERN.matcher(code);
+    while (importMatcher.find()) {
+      referencedClasses.add(importMatcher.group(1));
+    }
+    if (mxml) {
+      // the default namespace has the prefix "":
+      Map<String, String> namespaceByPrefix = new HashMap<String, String>();
+      Matcher namespaceMatcher = MXML_NAMESPACE_PATTERN.matcher(code);
+      while (namespaceMatcher.find()) {
+        String prefix = namespaceMatcher.group(1);
+        namespaceByPrefix.put(prefix == null ? "" : prefix, namespaceMatcher.group(2));
+      }
+      Matcher elementMatcher = MXML_ELEMENT_PATTERN.matcher(code);
+      while (elementMatcher.find()) {
+        String prefix = elementMatcher.group(1);
+        String namespace = namespaceByPrefix.get(prefix == null ? "" : prefix);
+        if (namespace != null) {
+          String elementClass = resolveElement(namespace, elementMatcher.group(2), packageName, componentClassesByNamespace);
+          if (elementClass != null) {
+            referencedClasses.add(elementClass);
+          }
+        }
+      }
+    }
+    // classes of the same package need not be imported, so any upper-case identifier is a candidate:
+    String packagePrefix = packageName.isEmpty() ? "" : packageName + ".";
+    Matcher identifierMatcher = IDENTIFIER_PATTERN.matcher(code);
+    while (identifierMatcher.find()) {
+      referencedClasses.add(packagePrefix + identifierMatcher.group());
+    }
+    return referencedClasses;
+  }
+
+  /**
+   * The class the given MXML element denotes, {@link #ANY_CLASS} if it cannot be determined, or
+   * <code>null</code> if it is an element of the MXML language namespace.
+   */
+  private static String resolveElement(String namespace, String elementName, String packageName,
+                                       Map<String, Map<String, String>> componentClassesByNamespace) {
+    if (MXML_LANGUAGE_NAMESPACE.equals(namespace)) {
+      return null;
+    }
+    if ("*".equals(namespace)) {
+      return packageName.isEmpty() ? elementName : packageName + "." + elementName;
+    }
+    if (namespace.endsWith(".*")) {
+      return namespace.substring(0, namespace.length() - 1) + elementName;
+    }
+    if (namespace.startsWith(EXML_NAMESPACE_PREFIX)) {
+      return namespace.substring(EXML_NAMESPACE_PREFIX.length()) + "." + elementName;
+    }
+    Map<String, String> componentClasses = componentClassesByNamespace.get(namespace);
+    if (componentClasses != null) {
+      // elements not listed in the manifest denote properties, not classes:
+      return componentClasses.get(elementName);
+    }
+    return ANY_CLASS;
+  }
+
+  /**
+   * Read the component classes of all given namespaces by namespace URI and component name. Several manifests
+   * may contribute to the same namespace. A namespace with any missing or unreadable manifest is left out, so
+   * that its elements are taken as referencing any class instead of none.
+   */
+  public static Map<String, Map<String, String>> readManifests(Collection<NamespaceConfiguration> namespaceConfigurations) {
+    Map<String, Map<String, String>> componentClassesByNamespace = new HashMap<String, Map<String, String>>();
+    Set<String> unresolvedNamespaces = new HashSet<String>();
+    for (NamespaceConfiguration namespaceConfiguration : namespaceConfigurations) {
+      File manifest = namespaceConfiguration.getManifest();
+      if (manifest == null) {
+        continue;
+      }
+      Map<String, String> manifestComponentClasses = readManifest(manifest);
+      if (manifestComponentClasses == null) {
+        unresolvedNamespaces.add(namespaceConfiguration.getUri());
+        continue;
+      }
+      Map<String, String> componentClasses = componentClassesByNamespace.get(namespaceConfiguration.getUri());
+      if (componentClasses == null) {
+        componentClasses = new HashMap<String, String>();
+        componentClassesByNamespace.put(namespaceConfiguration.getUri(), componentClasses);
+      }
+      componentClasses.putAll(manifestComponentClasses);
+    }
+    componentClassesByNamespace.keySet().removeAll(unresolvedNamespaces);
+    return componentClassesByNamespace;
+  }
+
+  /**
+   * Read the component classes by component name from the given namespace manifest, or return
+   * <code>null</code> if the manifest is missing or unreadable.
+   */
+  public static Map<String, String> readManifest(File manifest) {
+    Map<String, String> componentClasses = new HashMap<String, String>();
+    String content;
+    try {
+      content = FileUtil.loadFile(manifest);
+    } catch (IOException e) {
+      return null;
+    }
+    Matcher componentMatcher = MANIFEST_COMPONENT_PATTERN.matcher(content);
+    while (componentMatcher.find()) {
+      Matcher idMatcher = MANIFEST_ID_PATTERN.matcher(componentMatcher.group(1));
+      Matcher classMatcher = MANIFEST_CLASS_PATTERN.matcher(componentMatcher.group(1));
+      if (idMatcher.find() && classMatcher.find()) {
+        componentClasses.put(idMatcher.group(1), classMatcher.group(1));
+      }
+    }
+    return componentClasses;
+  }
+
+  public static String getPackageName(String qualifiedName) {
+    int lastDot = qualifiedName.lastIndexOf('.');
+    return lastDot == -1 ? "" : qualifiedName.substring(0, lastDot);
+  }
+
+}
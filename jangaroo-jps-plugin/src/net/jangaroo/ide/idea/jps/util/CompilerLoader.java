@@ -5,19 +5,94 @@ import net.jangaroo.jooc.api.Packager;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Load Jangaroo compilers of a specified version, using a custom class loader.
+ * All methods are thread-safe: class loaders are cached in a concurrent map and shared by all threads,
+ * while every call creates a new compiler or packager instance that must only be used by the calling thread.
+ * <p>
+ * Class loaders for SNAPSHOT jars are cached, too, but together with a stamp of the SNAPSHOT jars' contents.
+ * When a SNAPSHOT jar changes, its class loader is replaced.
+ * <p>
+ * The cache is bounded: at most <code>jangaroo.compilerLoader.maxClassLoaders</code> (default 4) class loaders
+ * are kept, and class loaders not used for <code>jangaroo.compilerLoader.maxIdleMinutes</code> (default 30) are
+ * evicted. Replaced and evicted class loaders may still be in use by a running compile, so they are only closed
+ * by {@link #closeReleasedClassLoaders()} after the build, which allows their classes to be unloaded.
+ * <p>
+ * Optionally, jars whose file names match the regular expression given by the system property
+ * <code>jangaroo.compilerLoader.sharedJars</code> (e.g. <code>.*closure-compiler.*|.*guava.*</code>) are
+ * loaded by a shared parent class loader, so that version-independent third-party dependencies are only
+ * loaded once for all Jangaroo SDK versions listing the same jars. This only has an effect for SDKs that
+ * list their dependencies as separate jars instead of a single jar-with-dependencies.
  */
 public class CompilerLoader {
 
-  private static final Map<List<String>,ClassLoader> CLASS_LOADER_BY_JAR_FILES_CACHE = new HashMap<List<String>, ClassLoader>();
+  private static final String SNAPSHOT_JAR_SUFFIX = "-SNAPSHOT.jar";
+  private static final int MAX_CLASS_LOADERS = Integer.getInteger("jangaroo.compilerLoader.maxClassLoaders", 4);
+  private static final long MAX_IDLE_MILLIS = TimeUnit.MINUTES.toMillis(Long.getLong("jangaroo.compilerLoader.maxIdleMinutes", 30L));
+  private static final Pattern SHARED_JARS_PATTERN = compileSharedJarsPattern(System.getProperty("jangaroo.compilerLoader.sharedJars"));
+
+  private static final ConcurrentMap<List<String>,CachedClassLoader> CLASS_LOADER_BY_JAR_FILES_CACHE = new ConcurrentHashMap<List<String>, CachedClassLoader>();
+  private static final ConcurrentMap<List<String>,CountingClassLoader> SHARED_CLASS_LOADER_BY_JAR_FILES = new ConcurrentHashMap<List<String>, CountingClassLoader>();
+  private static final Queue<CountingClassLoader> RELEASED_CLASS_LOADERS = new ConcurrentLinkedQueue<CountingClassLoader>();
+  private static final AtomicInteger SHARED_CLASS_LOADER_REUSE_COUNT = new AtomicInteger();
+  private static final AtomicLong CLASS_LOADER_CACHE_HIT_COUNT = new AtomicLong();
+  private static final AtomicLong CLASS_LOADER_CACHE_MISS_COUNT = new AtomicLong();
+  private static final AtomicLong SNAPSHOT_RELOAD_COUNT = new AtomicLong();
+
+  private static class CachedClassLoader {
+    private final CountingClassLoader classLoader;
+    private final String snapshotStamp;
+    private volatile long lastUsed = System.currentTimeMillis();
+
+    private CachedClassLoader(CountingClassLoader classLoader, String snapshotStamp) {
+      this.classLoader = classLoader;
+      this.snapshotStamp = snapshotStamp;
+    }
+  }
+
+  /**
+   * A class loader that counts the classes it defines, used to estimate the Metaspace it occupies.
+   */
+  private static class CountingClassLoader extends URLClassLoader {
+    private final AtomicInteger definedClassCount = new AtomicInteger();
+
+    private CountingClassLoader(URL[] urls, ClassLoader parent) {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+      Class<?> clazz = super.findClass(name);
+      definedClassCount.incrementAndGet();
+      return clazz;
+    }
+  }
+
+  private static Pattern compileSharedJarsPattern(String regExp) {
+    return regExp == null || regExp.trim().isEmpty() ? null : Pattern.compile(regExp.trim());
+  }
 
   public static Jooc loadJooc(List<String> jarFileNames) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
     return instantiateClass(Jooc.class, "net.jangaroo.jooc.Jooc", jarFileNames);
@@ -33,31 +108,232 @@ public class CompilerLoader {
     return compilerInterface.cast(joocClass.newInstance());
   }
 
-  private static ClassLoader getClassLoader(List<String> jarFileNames) throws FileNotFoundException {
-    return anyEndsWith(jarFileNames, "-SNAPSHOT.jar")
-      ? createClassLoader(jarFileNames)
-      : getCachedClassLoader(jarFileNames);
+  /**
+   * Whether the given compiler or packager instance was loaded by the class loader currently used for the
+   * given jars, i.e. whether none of the SNAPSHOT jars changed and the class loader was not evicted since
+   * the instance was created.
+   */
+  public static boolean isUpToDate(Object instance, List<String> jarFileNames) throws FileNotFoundException {
+    return instance.getClass().getClassLoader() == getClassLoader(jarFileNames);
   }
 
-  private static boolean anyEndsWith(List<String> strings, String suffix) {
-    for (String string : strings) {
-      if (string.endsWith(suffix)) {
+  /**
+   * Whether the given instance was loaded by a class loader that is still cached. Unlike
+   * {@link #isUpToDate(Object, List)}, this never creates a class loader.
+   */
+  public static boolean isCached(Object instance) {
+    ClassLoader classLoader = instance.getClass().getClassLoader();
+    for (CachedClassLoader cachedClassLoader : CLASS_LOADER_BY_JAR_FILES_CACHE.values()) {
+      if (cachedClassLoader.classLoader == classLoader) {
         return true;
       }
     }
     return false;
   }
 
-  private synchronized static ClassLoader getCachedClassLoader(List<String> jarFileNames) throws FileNotFoundException {
-    ClassLoader classLoader = CLASS_LOADER_BY_JAR_FILES_CACHE.get(jarFileNames);
-    if (classLoader == null) {
-      classLoader = createClassLoader(jarFileNames);
-      CLASS_LOADER_BY_JAR_FILES_CACHE.put(jarFileNames, classLoader);
+  public static int getCachedClassLoaderCount() {
+    return CLASS_LOADER_BY_JAR_FILES_CACHE.size();
+  }
+
+  /**
+   * The number of class loader lookups served from the cache since the build process started.
+   */
+  public static long getClassLoaderCacheHitCount() {
+    return CLASS_LOADER_CACHE_HIT_COUNT.get();
+  }
+
+  /**
+   * The number of class loaders created since the build process started, including SNAPSHOT reloads.
+   */
+  public static long getClassLoaderCacheMissCount() {
+    return CLASS_LOADER_CACHE_MISS_COUNT.get();
+  }
+
+  /**
+   * The number of class loaders replaced because a SNAPSHOT jar changed since the build process started.
+   */
+  public static long getSnapshotReloadCount() {
+    return SNAPSHOT_RELOAD_COUNT.get();
+  }
+
+  private static ClassLoader getClassLoader(List<String> jarFileNames) throws FileNotFoundException {
+    String snapshotStamp = computeSnapshotStamp(jarFileNames);
+    while (true) {
+      CachedClassLoader cachedClassLoader = CLASS_LOADER_BY_JAR_FILES_CACHE.get(jarFileNames);
+      if (cachedClassLoader != null && cachedClassLoader.snapshotStamp.equals(snapshotStamp)) {
+        cachedClassLoader.lastUsed = System.currentTimeMillis();
+        CLASS_LOADER_CACHE_HIT_COUNT.incrementAndGet();
+        return cachedClassLoader.classLoader;
+      }
+      // use an immutable copy as key, so that callers may reuse their list:
+      List<String> key = new ArrayList<String>(jarFileNames);
+      CachedClassLoader newClassLoader = new CachedClassLoader(createClassLoader(key), snapshotStamp);
+      if (cachedClassLoader == null
+        ? CLASS_LOADER_BY_JAR_FILES_CACHE.putIfAbsent(key, newClassLoader) == null
+        : CLASS_LOADER_BY_JAR_FILES_CACHE.replace(key, cachedClassLoader, newClassLoader)) {
+        CLASS_LOADER_CACHE_MISS_COUNT.incrementAndGet();
+        if (cachedClassLoader != null) {
+          // a SNAPSHOT jar changed, so the replaced class loader's classes are outdated:
+          RELEASED_CLASS_LOADERS.add(cachedClassLoader.classLoader);
+          SNAPSHOT_RELOAD_COUNT.incrementAndGet();
+        }
+        evictClassLoaders();
+        return newClassLoader.classLoader;
+      }
+      // another thread was faster, and nobody else has seen our class loader:
+      close(newClassLoader.classLoader);
+    }
+  }
+
+  /**
+   * Evict class loaders that have been idle for too long, and the least recently used class loaders
+   * beyond the maximum number of cached class loaders.
+   */
+  private static void evictClassLoaders() {
+    List<Map.Entry<List<String>, CachedClassLoader>> entries = new ArrayList<Map.Entry<List<String>, CachedClassLoader>>(CLASS_LOADER_BY_JAR_FILES_CACHE.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<List<String>, CachedClassLoader>>() {
+      public int compare(Map.Entry<List<String>, CachedClassLoader> entry1, Map.Entry<List<String>, CachedClassLoader> entry2) {
+        return Long.compare(entry1.getValue().lastUsed, entry2.getValue().lastUsed);
+      }
+    });
+    long now = System.currentTimeMillis();
+    int size = entries.size();
+    for (Map.Entry<List<String>, CachedClassLoader> entry : entries) {
+      if (size > MAX_CLASS_LOADERS || now - entry.getValue().lastUsed > MAX_IDLE_MILLIS) {
+        if (CLASS_LOADER_BY_JAR_FILES_CACHE.remove(entry.getKey(), entry.getValue())) {
+          RELEASED_CLASS_LOADERS.add(entry.getValue().classLoader);
+          --size;
+        }
+      }
+    }
+  }
+
+  /**
+   * Close all class loaders that have been replaced or evicted, as well as shared class loaders no longer
+   * used by any cached class loader, so that their classes can be unloaded. Must only be called when no
+   * compiler is running, i.e. after a build.
+   * @return a report on the class loaders and the (estimated) Metaspace they occupy, or <code>null</code> if there
+   *   was nothing to report
+   */
+  public static String closeReleasedClassLoaders() {
+    evictClassLoaders();
+    Set<ClassLoader> usedSharedClassLoaders = new HashSet<ClassLoader>();
+    for (CachedClassLoader cachedClassLoader : CLASS_LOADER_BY_JAR_FILES_CACHE.values()) {
+      usedSharedClassLoaders.add(cachedClassLoader.classLoader.getParent());
+    }
+    for (Map.Entry<List<String>, CountingClassLoader> entry : SHARED_CLASS_LOADER_BY_JAR_FILES.entrySet()) {
+      if (!usedSharedClassLoaders.contains(entry.getValue()) && SHARED_CLASS_LOADER_BY_JAR_FILES.remove(entry.getKey(), entry.getValue())) {
+        RELEASED_CLASS_LOADERS.add(entry.getValue());
+      }
+    }
+    int closedCount = 0;
+    int unloadableClassCount = 0;
+    CountingClassLoader releasedClassLoader;
+    while ((releasedClassLoader = RELEASED_CLASS_LOADERS.poll()) != null) {
+      close(releasedClassLoader);
+      ++closedCount;
+      unloadableClassCount += releasedClassLoader.definedClassCount.get();
+    }
+    int sharedClassCount = 0;
+    for (CountingClassLoader sharedClassLoader : SHARED_CLASS_LOADER_BY_JAR_FILES.values()) {
+      sharedClassCount += sharedClassLoader.definedClassCount.get();
+    }
+    int sharedReuseCount = SHARED_CLASS_LOADER_REUSE_COUNT.getAndSet(0);
+    if (closedCount == 0 && sharedReuseCount == 0) {
+      return null;
+    }
+    long bytesPerClass = estimateMetaspaceBytesPerClass();
+    return String.format("Jangaroo compiler class loaders: %d cached, %d closed (~%d KB Metaspace reclaimable), " +
+        "%d shared layers reused (~%d KB Metaspace saved).",
+      CLASS_LOADER_BY_JAR_FILES_CACHE.size(), closedCount, unloadableClassCount * bytesPerClass / 1024,
+      sharedReuseCount, sharedReuseCount > 0 ? sharedClassCount * bytesPerClass / 1024 : 0);
+  }
+
+  /**
+   * The average Metaspace used per loaded class in this JVM, or 0 if the JVM does not report Metaspace.
+   */
+  private static long estimateMetaspaceBytesPerClass() {
+    long loadedClassCount = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+    if (loadedClassCount > 0) {
+      for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if ("Metaspace".equals(memoryPool.getName())) {
+          return memoryPool.getUsage().getUsed() / loadedClassCount;
+        }
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * A stamp of the contents of all SNAPSHOT jars in the given list, or the empty string if there are none.
+   * Content hashes are only recomputed when a jar's size or time stamp changes, so that rebuilding a SNAPSHOT
+   * jar without changes does not replace its class loader.
+   */
+  private static String computeSnapshotStamp(List<String> jarFileNames) throws FileNotFoundException {
+    StringBuilder stamp = new StringBuilder();
+    for (String jarFileName : jarFileNames) {
+      if (jarFileName.endsWith(SNAPSHOT_JAR_SUFFIX)) {
+        File jarFile = new File(jarFileName);
+        if (!jarFile.exists()) {
+          throw new FileNotFoundException("JAR file not found: " + jarFile.getAbsolutePath());
+        }
+        try {
+          stamp.append(DigestUtils.hashCached(jarFile));
+        } catch (IOException e) {
+          // cannot tell whether the jar changed, so play safe:
+          stamp.append(jarFile.length()).append('|').append(jarFile.lastModified());
+        }
+        stamp.append(';');
+      }
+    }
+    return stamp.toString();
+  }
+
+  private static void close(ClassLoader classLoader) {
+    if (classLoader instanceof URLClassLoader) {
+      try {
+        ((URLClassLoader)classLoader).close();
+      } catch (IOException e) {
+        // ignore, the class loader is no longer used anyway
+      }
+    }
+  }
+
+  private static CountingClassLoader createClassLoader(List<String> jarFileNames) throws FileNotFoundException {
+    List<String> ownJarFileNames = new ArrayList<String>(jarFileNames.size());
+    List<String> sharedJarFileNames = new ArrayList<String>();
+    for (String jarFileName : jarFileNames) {
+      if (SHARED_JARS_PATTERN != null && !jarFileName.endsWith(SNAPSHOT_JAR_SUFFIX)
+        && SHARED_JARS_PATTERN.matcher(new File(jarFileName).getName()).matches()) {
+        sharedJarFileNames.add(jarFileName);
+      } else {
+        ownJarFileNames.add(jarFileName);
+      }
+    }
+    ClassLoader parent = sharedJarFileNames.isEmpty()
+      ? CompilerLoader.class.getClassLoader()
+      : getSharedClassLoader(sharedJarFileNames);
+    return new CountingClassLoader(toURLs(ownJarFileNames), parent);
+  }
+
+  private static ClassLoader getSharedClassLoader(List<String> sharedJarFileNames) throws FileNotFoundException {
+    CountingClassLoader sharedClassLoader = SHARED_CLASS_LOADER_BY_JAR_FILES.get(sharedJarFileNames);
+    if (sharedClassLoader != null) {
+      SHARED_CLASS_LOADER_REUSE_COUNT.incrementAndGet();
+      return sharedClassLoader;
+    }
+    CountingClassLoader newSharedClassLoader = new CountingClassLoader(toURLs(sharedJarFileNames), CompilerLoader.class.getClassLoader());
+    sharedClassLoader = SHARED_CLASS_LOADER_BY_JAR_FILES.putIfAbsent(sharedJarFileNames, newSharedClassLoader);
+    if (sharedClassLoader == null) {
+      return newSharedClassLoader;
     }
-    return classLoader;
+    // another thread was faster:
+    close(newSharedClassLoader);
+    SHARED_CLASS_LOADER_REUSE_COUNT.incrementAndGet();
+    return sharedClassLoader;
   }
 
-  private static ClassLoader createClassLoader(List<String> jarFileNames) throws FileNotFoundException {
+  private static URL[] toURLs(List<String> jarFileNames) throws FileNotFoundException {
     URL[] urls = new URL[jarFileNames.size()];
     for (int i = 0; i < jarFileNames.size(); i++) {
       String jarFileName = jarFileNames.get(i);
@@ -66,7 +342,7 @@ public class CompilerLoader {
       }
       urls[i] = toURL(jarFileName);
     }
-    return new URLClassLoader(urls, CompilerLoader.class.getClassLoader());
+    return urls;
   }
 
   private static URL toURL(String jarFileName) throws FileNotFoundException {
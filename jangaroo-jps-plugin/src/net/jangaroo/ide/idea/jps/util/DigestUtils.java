@@ -0,0 +1,168 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility methods to compute content hashes used as fingerprints by the Jangaroo builder.
+ */
+public class DigestUtils {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final Logger LOG = Logger.getInstance(DigestUtils.class);
+  private static final int HASH_CACHE_VERSION = 1;
+  private static final int MAX_CACHED_HASHES = Integer.getInteger("jangaroo.hashCache.maxEntries", 1000);
+  private static final Map<String, String> HASH_BY_FILE_STAMP = new LinkedHashMap<String, String>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+      return size() > MAX_CACHED_HASHES;
+    }
+  };
+
+  public static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException e) {
+      // should not happen, every JRE must support MD5:
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static void update(MessageDigest digest, String value) {
+    digest.update((value == null ? "" : value).getBytes(UTF_8));
+    digest.update((byte)0);
+  }
+
+  public static void update(MessageDigest digest, File file) throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file));
+    try {
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  public static String hash(File file) throws IOException {
+    MessageDigest digest = createDigest();
+    update(digest, file);
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Like {@link #hash(File)}, but remembers the hash for the file's path, size and time stamp, so that
+   * large, rarely changing files like jars are only read once. The latest hashes are kept in memory and,
+   * through {@link #readHashCache(File)} and {@link #writeHashCache(File)}, across JPS processes.
+   */
+  public static String hashCached(File file) throws IOException {
+    String fileStamp = file.getPath() + '|' + file.length() + '|' + file.lastModified();
+    String hash;
+    synchronized (HASH_BY_FILE_STAMP) {
+      hash = HASH_BY_FILE_STAMP.get(fileStamp);
+    }
+    if (hash == null) {
+      hash = hash(file);
+      synchronized (HASH_BY_FILE_STAMP) {
+        HASH_BY_FILE_STAMP.put(fileStamp, hash);
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Add the hashes stored in the given file by {@link #writeHashCache(File)} to the cache of {@link #hashCached(File)}.
+   */
+  public static void readHashCache(File hashCacheFile) {
+    if (!hashCacheFile.exists()) {
+      return;
+    }
+    Map<String, String> storedHashes = new LinkedHashMap<String, String>();
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hashCacheFile)));
+      try {
+        if (in.readInt() != HASH_CACHE_VERSION) {
+          return;
+        }
+        int hashCount = in.readInt();
+        for (int i = 0; i < hashCount; i++) {
+          storedHashes.put(in.readUTF(), in.readUTF());
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not read Jangaroo file hashes " + hashCacheFile + ", computing them again.", e);
+      return;
+    }
+    synchronized (HASH_BY_FILE_STAMP) {
+      for (Map.Entry<String, String> entry : storedHashes.entrySet()) {
+        // do not replace, so that hashes used in this process stay the most recently used ones:
+        if (!HASH_BY_FILE_STAMP.containsKey(entry.getKey())) {
+          HASH_BY_FILE_STAMP.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Store the cached hashes of all files that still exist in the given file.
+   */
+  public static void writeHashCache(File hashCacheFile) throws IOException {
+    Map<String, String> hashByFileStamp;
+    synchronized (HASH_BY_FILE_STAMP) {
+      hashByFileStamp = new LinkedHashMap<String, String>(HASH_BY_FILE_STAMP);
+    }
+    List<Map.Entry<String, String>> existingEntries = new ArrayList<Map.Entry<String, String>>(hashByFileStamp.size());
+    for (Map.Entry<String, String> entry : hashByFileStamp.entrySet()) {
+      String fileStamp = entry.getKey();
+      // the file stamp is path|size|time stamp:
+      String path = fileStamp.substring(0, fileStamp.lastIndexOf('|', fileStamp.lastIndexOf('|') - 1));
+      if (new File(path).exists()) {
+        existingEntries.add(entry);
+      }
+    }
+    FileUtil.createParentDirs(hashCacheFile);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(hashCacheFile)));
+    try {
+      out.writeInt(HASH_CACHE_VERSION);
+      out.writeInt(existingEntries.size());
+      for (Map.Entry<String, String> entry : existingEntries) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static String toHex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+      chars[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xF];
+    }
+    return new String(chars);
+  }
+
+}
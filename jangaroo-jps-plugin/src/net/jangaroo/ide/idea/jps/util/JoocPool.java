@@ -0,0 +1,162 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import net.jangaroo.jooc.api.Jooc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps warmed-up Jangaroo compiler instances alive between incremental builds inside the JPS process.
+ * Instances are pooled by SDK jar list and effective class path. Each pool entry carries a stamp of the
+ * contents of its class path and source path; when the stamp changes, all idle instances of that entry are
+ * discarded, so that no instance keeps using declarations resolved from outdated class path or source files.
+ * <p>
+ * The pool is thread-safe. A borrowed instance is owned exclusively by the borrowing thread until it is
+ * {@link #release released}, so concurrently building threads never share a compiler instance.
+ */
+public class JoocPool {
+
+  private static final Logger LOG = Logger.getInstance(JoocPool.class);
+  private static final int MAX_KEYS = Integer.getInteger("jangaroo.joocPool.maxKeys", 32);
+  private static final int MAX_IDLE_PER_KEY = Integer.getInteger("jangaroo.joocPool.maxIdlePerKey", 2);
+
+  private static final Map<Key, Entry> ENTRIES = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+      return size() > MAX_KEYS;
+    }
+  };
+
+  /**
+   * Identifies a pool entry: the Jangaroo SDK jars and the effective jooc class path.
+   */
+  public static class Key {
+    private final List<String> jarPaths;
+    private final List<String> classPath;
+
+    public Key(List<String> jarPaths, List<File> classPath) {
+      this.jarPaths = new ArrayList<String>(jarPaths);
+      this.classPath = new ArrayList<String>(classPath.size());
+      for (File classPathEntry : classPath) {
+        this.classPath.add(classPathEntry.getPath());
+      }
+    }
+
+    public List<String> getJarPaths() {
+      return jarPaths;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Key key = (Key)o;
+      return jarPaths.equals(key.jarPaths) && classPath.equals(key.classPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * jarPaths.hashCode() + classPath.hashCode();
+    }
+  }
+
+  private static class Entry {
+    private String classPathStamp;
+    private final Deque<Jooc> idleInstances = new ArrayDeque<Jooc>();
+  }
+
+  /**
+   * Take a compiler instance for the given key out of the pool, or create a new one if there is no idle
+   * instance whose class path stamp matches.
+   */
+  public static Jooc borrow(Key key, String classPathStamp) throws FileNotFoundException, ClassNotFoundException, InstantiationException, IllegalAccessException {
+    Jooc jooc = null;
+    synchronized (ENTRIES) {
+      Entry entry = ENTRIES.get(key);
+      if (entry != null) {
+        if (!entry.classPathStamp.equals(classPathStamp)) {
+          LOG.debug("Class path changed, discarding " + entry.idleInstances.size() + " pooled Jangaroo compiler(s).");
+          entry.idleInstances.clear();
+          entry.classPathStamp = classPathStamp;
+        } else if (!entry.idleInstances.isEmpty()) {
+          jooc = entry.idleInstances.pop();
+        }
+      }
+    }
+    // checking SNAPSHOT jars touches the file system, so do it outside the lock:
+    if (jooc != null) {
+      if (CompilerLoader.isUpToDate(jooc, key.getJarPaths())) {
+        return jooc;
+      }
+      discardOutdated(key, jooc);
+    }
+    return CompilerLoader.loadJooc(key.getJarPaths());
+  }
+
+  private static void discardOutdated(Key key, Jooc outdatedJooc) {
+    ClassLoader outdatedClassLoader = outdatedJooc.getClass().getClassLoader();
+    synchronized (ENTRIES) {
+      Entry entry = ENTRIES.get(key);
+      if (entry == null) {
+        return;
+      }
+      int discardedCount = 1;
+      for (Iterator<Jooc> iterator = entry.idleInstances.iterator(); iterator.hasNext(); ) {
+        if (iterator.next().getClass().getClassLoader() == outdatedClassLoader) {
+          iterator.remove();
+          ++discardedCount;
+        }
+      }
+      LOG.debug("Jangaroo SDK SNAPSHOT jar changed, discarding " + discardedCount + " pooled Jangaroo compiler(s).");
+    }
+  }
+
+  /**
+   * Discard all idle compiler instances whose class loader has been evicted from the {@link CompilerLoader}
+   * cache, so that they do not keep the class loader's classes from being unloaded.
+   */
+  public static void purge() {
+    synchronized (ENTRIES) {
+      for (Entry entry : ENTRIES.values()) {
+        for (Iterator<Jooc> iterator = entry.idleInstances.iterator(); iterator.hasNext(); ) {
+          if (!CompilerLoader.isCached(iterator.next())) {
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Return a compiler instance that completed its run normally, so that it can be reused by later builds.
+   * The instance's log and configuration are reset, so that an idle instance does not keep the previous
+   * build's compile context reachable.
+   */
+  public static void release(Key key, String classPathStamp, Jooc jooc) {
+    jooc.setLog(null);
+    jooc.setConfig(null);
+    synchronized (ENTRIES) {
+      Entry entry = ENTRIES.get(key);
+      if (entry == null) {
+        entry = new Entry();
+        entry.classPathStamp = classPathStamp;
+        ENTRIES.put(key, entry);
+      } else if (!entry.classPathStamp.equals(classPathStamp)) {
+        // class path changed while this instance was in use:
+        return;
+      }
+      if (entry.idleInstances.size() < MAX_IDLE_PER_KEY) {
+        entry.idleInstances.push(jooc);
+      }
+    }
+  }
+
+}
@@ -6,13 +6,36 @@ import org.jetbrains.jps.incremental.MessageHandler;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
 * A Jangaroo CompileLog that logs via JPS message handler.
+* <p>
+* Errors are delivered immediately. Warnings are buffered until the next {@link #flush()}, so that a
+* module producing thousands of warnings does not flood the IDE: identical warnings are collapsed into
+* one message, and only the first warnings of each file and in total are delivered, followed by a
+* summary of how many more were suppressed.
+* <p>
+* All warnings with a file position are also recorded per file, so that they can be stored and replayed
+* in later builds that do not recompile the file. Replayed warnings are collapsed, too, but neither capped
+* nor counted against the caps, so that even a build compiling nothing shows all warnings of the target.
 */
 public class JpsCompileLog implements CompileLog {
+  private static final int MAX_WARNINGS_PER_FILE = Integer.getInteger("jangaroo.compileLog.maxWarningsPerFile", 20);
+  private static final int MAX_WARNINGS = Integer.getInteger("jangaroo.compileLog.maxWarnings", 200);
+
   private MessageHandler messageHandler;
   private boolean hasErrors = false;
+  private int errorCount = 0;
   private String builderName;
+  private final Map<PendingMessage, PendingMessage> pendingWarnings = new LinkedHashMap<PendingMessage, PendingMessage>();
+  private final Map<String, List<Warning>> warningsByFile = new HashMap<String, List<Warning>>();
 
   public JpsCompileLog(String builderName, MessageHandler messageHandler) {
     this.messageHandler = messageHandler;
@@ -20,13 +43,66 @@ public class JpsCompileLog implements CompileLog {
   }
 
   private void addMessage(BuildMessage.Kind compilerMessageCategory, String msg, FilePosition position) {
-    messageHandler.processMessage(new CompilerMessage(builderName, compilerMessageCategory, msg,
-      position.getFileName(), 0L, 0L, 0L, (long)position.getLine(), (long)position.getColumn()));
     if (compilerMessageCategory == BuildMessage.Kind.ERROR) {
+      messageHandler.processMessage(new CompilerMessage(builderName, compilerMessageCategory, msg,
+        position.getFileName(), 0L, 0L, 0L, (long)position.getLine(), (long)position.getColumn()));
       hasErrors = true;
+      ++errorCount;
+    } else {
+      addWarning(msg, position.getFileName(), position.getLine(), position.getColumn());
+    }
+  }
+
+  private void addWarning(String msg, String fileName, int line, int column) {
+    if (addPendingWarning(new PendingMessage(msg, fileName, line, column)) && fileName != null) {
+      String filePath = new File(fileName).getAbsolutePath();
+      List<Warning> warnings = warningsByFile.get(filePath);
+      if (warnings == null) {
+        warnings = new ArrayList<Warning>();
+        warningsByFile.put(filePath, warnings);
+      }
+      warnings.add(new Warning(String.valueOf(msg), line, column));
     }
   }
 
+  /**
+   * @return whether the given warning is new, i.e. not identical to one already pending
+   */
+  private boolean addPendingWarning(PendingMessage warning) {
+    PendingMessage existing = pendingWarnings.get(warning);
+    if (existing == null) {
+      pendingWarnings.put(warning, warning);
+      return true;
+    }
+    ++existing.count;
+    return false;
+  }
+
+  /**
+   * Log a warning recorded in an earlier build for a file not compiled in this build.
+   */
+  public void replayWarning(String fileName, Warning warning) {
+    PendingMessage replayedWarning = new PendingMessage(warning.getMessage(), fileName, warning.getLine(), warning.getColumn());
+    replayedWarning.replayed = true;
+    addPendingWarning(replayedWarning);
+  }
+
+  /**
+   * Log a warning the compiler issued for a file whose output has been restored from the build cache
+   * instead of compiling it. Unlike replayed warnings, it is treated exactly like a new warning.
+   */
+  public void restoreWarning(String fileName, Warning warning) {
+    addWarning(warning.getMessage(), fileName, warning.getLine(), warning.getColumn());
+  }
+
+  /**
+   * All warnings logged for the given file, except replayed ones.
+   */
+  public List<Warning> getWarnings(String filePath) {
+    List<Warning> warnings = warningsByFile.get(filePath);
+    return warnings == null ? Collections.<Warning>emptyList() : new ArrayList<Warning>(warnings);
+  }
+
   public void error(FilePosition position, String msg) {
     addMessage(BuildMessage.Kind.ERROR, msg, position);
   }
@@ -34,6 +110,7 @@ public class JpsCompileLog implements CompileLog {
   public void error(String msg) {
     messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.ERROR, msg));
     hasErrors = true;
+    ++errorCount;
   }
 
   public void warning(FilePosition position, String msg) {
@@ -41,11 +118,132 @@ public class JpsCompileLog implements CompileLog {
   }
 
   public void warning(String msg) {
-    messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING, msg));
+    addPendingWarning(new PendingMessage(msg, null, -1, -1));
+  }
+
+  /**
+   * Deliver all buffered warnings, collapsed, and capped unless replayed, to the message handler. Call at the
+   * end of each compilation phase, at the latest when the build of the target is finished.
+   */
+  public void flush() {
+    if (pendingWarnings.isEmpty()) {
+      return;
+    }
+    Map<String, Integer> deliveredCountByFile = new HashMap<String, Integer>();
+    Map<String, Integer> suppressedCountByFile = new LinkedHashMap<String, Integer>();
+    int deliveredCount = 0;
+    int suppressedCount = 0;
+    for (PendingMessage warning : pendingWarnings.keySet()) {
+      Integer deliveredInFile = deliveredCountByFile.get(warning.fileName);
+      int fileCount = deliveredInFile == null ? 0 : deliveredInFile;
+      if (warning.replayed) {
+        deliver(warning);
+      } else if (deliveredCount >= MAX_WARNINGS) {
+        suppressedCount += warning.count;
+      } else if (warning.fileName != null && fileCount >= MAX_WARNINGS_PER_FILE) {
+        Integer suppressedInFile = suppressedCountByFile.get(warning.fileName);
+        suppressedCountByFile.put(warning.fileName, (suppressedInFile == null ? 0 : suppressedInFile) + warning.count);
+      } else {
+        deliver(warning);
+        deliveredCountByFile.put(warning.fileName, fileCount + 1);
+        ++deliveredCount;
+      }
+    }
+    pendingWarnings.clear();
+    for (Map.Entry<String, Integer> entry : suppressedCountByFile.entrySet()) {
+      messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
+        String.format("%d more warnings in this file not shown.", entry.getValue()),
+        entry.getKey(), 0L, 0L, 0L, -1L, -1L));
+    }
+    if (suppressedCount > 0) {
+      messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING,
+        String.format("%d more warnings not shown.", suppressedCount)));
+    }
+  }
+
+  private void deliver(PendingMessage warning) {
+    String msg = warning.count > 1 ? String.format("%s (%d times)", warning.msg, warning.count) : warning.msg;
+    if (warning.fileName == null) {
+      messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING, msg));
+    } else {
+      messageHandler.processMessage(new CompilerMessage(builderName, BuildMessage.Kind.WARNING, msg,
+        warning.fileName, 0L, 0L, 0L, (long)warning.line, (long)warning.column));
+    }
   }
 
   public boolean hasErrors() {
     return hasErrors;
   }
 
+  public int getErrorCount() {
+    return errorCount;
+  }
+
+  /**
+   * A warning at a position in a file.
+   */
+  public static class Warning {
+    private final String message;
+    private final int line;
+    private final int column;
+
+    public Warning(String message, int line, int column) {
+      this.message = message;
+      this.line = line;
+      this.column = column;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public int getColumn() {
+      return column;
+    }
+  }
+
+  /**
+   * A buffered message; messages with equal text and position are identical and only counted.
+   */
+  private static class PendingMessage {
+    private final String msg;
+    private final String fileName;
+    private final int line;
+    private final int column;
+    private int count = 1;
+    private boolean replayed = false;
+
+    private PendingMessage(String msg, String fileName, int line, int column) {
+      this.msg = String.valueOf(msg);
+      this.fileName = fileName;
+      this.line = line;
+      this.column = column;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof PendingMessage)) {
+        return false;
+      }
+      PendingMessage that = (PendingMessage)o;
+      return line == that.line && column == that.column && msg.equals(that.msg)
+        && (fileName == null ? that.fileName == null : fileName.equals(that.fileName));
+    }
+
+    @Override
+    public int hashCode() {
+      int result = msg.hashCode();
+      result = 31 * result + (fileName == null ? 0 : fileName.hashCode());
+      result = 31 * result + line;
+      return 31 * result + column;
+    }
+  }
+
 }
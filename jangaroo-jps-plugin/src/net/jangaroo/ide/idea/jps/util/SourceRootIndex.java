@@ -0,0 +1,63 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.util.SystemInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps files to the innermost source root containing them. Instead of testing every root for every file,
+ * a lookup walks up the file's path and probes a hash map of root paths, so classifying a file costs
+ * time proportional to its path depth, independent of the number of roots.
+ */
+public class SourceRootIndex {
+
+  private final Map<String, File> rootByPath = new HashMap<String, File>();
+
+  public SourceRootIndex(@NotNull Iterable<File> roots) {
+    for (File root : roots) {
+      rootByPath.put(toKey(root.getAbsolutePath()), root);
+    }
+  }
+
+  public boolean isEmpty() {
+    return rootByPath.isEmpty();
+  }
+
+  /**
+   * The innermost root that is the given file or one of its ancestors, or <code>null</code> if there is none.
+   */
+  @Nullable
+  public File getRoot(@NotNull File file) {
+    if (rootByPath.isEmpty()) {
+      return null;
+    }
+    String path = toKey(file.getAbsolutePath());
+    while (true) {
+      File root = rootByPath.get(path);
+      if (root != null) {
+        return root;
+      }
+      int separatorIndex = path.lastIndexOf(File.separatorChar);
+      if (separatorIndex < 0) {
+        return null;
+      }
+      // keep the separator of file system roots like "/" or "C:\":
+      path = path.substring(0, separatorIndex == 0 || path.charAt(separatorIndex - 1) == ':' ? separatorIndex + 1 : separatorIndex);
+      if (path.length() == separatorIndex + 1) {
+        return rootByPath.get(path);
+      }
+    }
+  }
+
+  private static String toKey(String path) {
+    if (path.length() > 1 && path.charAt(path.length() - 1) == File.separatorChar && path.charAt(path.length() - 2) != ':') {
+      path = path.substring(0, path.length() - 1);
+    }
+    return SystemInfo.isFileSystemCaseSensitive ? path : path.toLowerCase();
+  }
+
+}
@@ -0,0 +1,112 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JangarooApiFingerprintsTest {
+
+  private File tempDirectory;
+  private File fingerprintsFile;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDirectory = FileUtil.createTempDirectory("jangaroo-api-fingerprints", null);
+    fingerprintsFile = new File(tempDirectory, "fingerprints.dat");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(tempDirectory);
+  }
+
+  @Test
+  public void testUpdate() {
+    JangarooApiFingerprints fingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    assertTrue(fingerprints.isEmpty());
+    assertTrue(fingerprints.update("com.acme.A", "1"));
+    assertFalse(fingerprints.update("com.acme.A", "1"));
+    assertTrue(fingerprints.update("com.acme.A", "2"));
+    assertEquals("2", fingerprints.getFingerprint("com.acme.A"));
+    assertTrue(fingerprints.update("com.acme.A", null));
+    assertFalse(fingerprints.update("com.acme.A", null));
+    assertNull(fingerprints.getFingerprint("com.acme.A"));
+  }
+
+  @Test
+  public void testDigest() {
+    JangarooApiFingerprints fingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    fingerprints.update("com.acme.A", "1");
+    fingerprints.update("com.acme.B", "2");
+    JangarooApiFingerprints otherOrder = JangarooApiFingerprints.load(new File(tempDirectory, "other.dat"));
+    otherOrder.update("com.acme.B", "2");
+    otherOrder.update("com.acme.A", "1");
+    assertEquals(fingerprints.getDigest(), otherOrder.getDigest());
+
+    String digest = fingerprints.getDigest();
+    fingerprints.update("com.acme.B", "3");
+    assertFalse(digest.equals(fingerprints.getDigest()));
+    fingerprints.update("com.acme.B", "2");
+    assertEquals(digest, fingerprints.getDigest());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    JangarooApiFingerprints fingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    fingerprints.update("com.acme.A", "1");
+    fingerprints.rememberUpstream("upstream", "digest", Collections.singletonMap("ext.Panel", "7"));
+    fingerprints.save();
+
+    JangarooApiFingerprints loadedFingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    assertEquals(Collections.singletonMap("com.acme.A", "1"), loadedFingerprints.getFingerprints());
+    assertEquals(fingerprints.getDigest(), loadedFingerprints.getDigest());
+    assertEquals("digest", loadedFingerprints.getUpstreamDigest("upstream"));
+    assertEquals(Collections.singletonMap("ext.Panel", "7"), loadedFingerprints.getUpstreamFingerprints("upstream"));
+    assertNull(loadedFingerprints.getUpstreamDigest("other"));
+    assertTrue(loadedFingerprints.getUpstreamFingerprints("other").isEmpty());
+  }
+
+  @Test
+  public void testClear() throws IOException {
+    JangarooApiFingerprints fingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    fingerprints.update("com.acme.A", "1");
+    fingerprints.rememberUpstream("upstream", "digest", Collections.<String, String>emptyMap());
+    fingerprints.save();
+    fingerprints.clear();
+    fingerprints.save();
+
+    JangarooApiFingerprints loadedFingerprints = JangarooApiFingerprints.load(fingerprintsFile);
+    assertTrue(loadedFingerprints.isEmpty());
+    assertNull(loadedFingerprints.getUpstreamDigest("upstream"));
+  }
+
+  @Test
+  public void testComputeFingerprintPrefersApiStub() throws IOException {
+    File apiOutputDirectory = new File(tempDirectory, "api");
+    File sourceFile = new File(tempDirectory, "src/com/acme/A.as");
+    FileUtil.writeToFile(sourceFile, "package com.acme { public class A { private var impl; } }");
+    String sourceFingerprint = JangarooApiFingerprints.computeFingerprint(apiOutputDirectory, "com.acme.A", sourceFile);
+    assertEquals(sourceFingerprint, JangarooApiFingerprints.computeFingerprint(null, "com.acme.A", sourceFile));
+
+    File apiStub = JangarooApiFingerprints.getApiStub(apiOutputDirectory, "com.acme.A");
+    FileUtil.writeToFile(apiStub, "package com.acme { public class A {} }");
+    String apiFingerprint = JangarooApiFingerprints.computeFingerprint(apiOutputDirectory, "com.acme.A", sourceFile);
+    assertFalse(sourceFingerprint.equals(apiFingerprint));
+
+    // implementation changes do not change the API fingerprint:
+    FileUtil.writeToFile(sourceFile, "package com.acme { public class A { private var otherImpl; } }");
+    assertEquals(apiFingerprint, JangarooApiFingerprints.computeFingerprint(apiOutputDirectory, "com.acme.A", sourceFile));
+    assertNull(JangarooApiFingerprints.computeFingerprint(null, "com.acme.B", new File(tempDirectory, "src/com/acme/B.as")));
+  }
+
+}
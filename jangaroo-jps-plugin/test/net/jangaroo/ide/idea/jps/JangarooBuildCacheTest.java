@@ -0,0 +1,163 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.JpsCompileLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JangarooBuildCacheTest {
+
+  private File tempDirectory;
+  private File cacheDirectory;
+  private File outputDirectory;
+  private File apiOutputDirectory;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDirectory = FileUtil.createTempDirectory("jangaroo-build-cache", null);
+    cacheDirectory = new File(tempDirectory, "cache");
+    outputDirectory = new File(tempDirectory, "out");
+    apiOutputDirectory = new File(tempDirectory, "api");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(tempDirectory);
+  }
+
+  @Test
+  public void testRestoreStoredEntry() throws IOException {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    storeEntry(buildCache, "ab01", "A", "js", Collections.singletonList(new JpsCompileLog.Warning("unused import", 3, 7)));
+    FileUtil.delete(outputDirectory);
+    FileUtil.delete(apiOutputDirectory);
+
+    Set<File> changedOutputs = new HashSet<File>();
+    List<JpsCompileLog.Warning> warnings = new ArrayList<JpsCompileLog.Warning>();
+    List<File> restoredOutputs = buildCache.restore("ab01", outputDirectory, apiOutputDirectory, changedOutputs, warnings);
+
+    File output = new File(outputDirectory, "com/acme/A.js");
+    File sourceMap = new File(outputDirectory, "com/acme/A.js.map");
+    assertEquals(new HashSet<File>(Arrays.asList(output, sourceMap)), new HashSet<File>(restoredOutputs));
+    assertEquals(new HashSet<File>(restoredOutputs), changedOutputs);
+    assertEquals("js", FileUtil.loadFile(output));
+    assertEquals("js.map", FileUtil.loadFile(sourceMap));
+    assertEquals("api", FileUtil.loadFile(new File(apiOutputDirectory, "com/acme/A.as")));
+    assertEquals(1, warnings.size());
+    assertEquals("unused import", warnings.get(0).getMessage());
+    assertEquals(3, warnings.get(0).getLine());
+    assertEquals(7, warnings.get(0).getColumn());
+  }
+
+  @Test
+  public void testRestoreReplacesOnlyChangedOutputs() throws IOException {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    storeEntry(buildCache, "ab01", "A", "new js", Collections.<JpsCompileLog.Warning>emptyList());
+    File output = new File(outputDirectory, "com/acme/A.js");
+    File sourceMap = new File(outputDirectory, "com/acme/A.js.map");
+    FileUtil.writeToFile(output, "old js");
+    FileUtil.writeToFile(sourceMap, "new js.map");
+    long lastModified = 1000000000000L;
+    assertTrue(sourceMap.setLastModified(lastModified));
+
+    Set<File> changedOutputs = new HashSet<File>();
+    List<File> restoredOutputs = buildCache.restore("ab01", outputDirectory, apiOutputDirectory, changedOutputs,
+      new ArrayList<JpsCompileLog.Warning>());
+
+    assertEquals(2, restoredOutputs.size());
+    assertEquals(Collections.singleton(output), changedOutputs);
+    assertEquals("new js", FileUtil.loadFile(output));
+    assertEquals(lastModified, sourceMap.lastModified());
+  }
+
+  @Test
+  public void testMiss() {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    assertNull(buildCache.getReport());
+    Set<File> changedOutputs = new HashSet<File>();
+    assertNull(buildCache.restore("cd02", outputDirectory, apiOutputDirectory, changedOutputs, new ArrayList<JpsCompileLog.Warning>()));
+    assertTrue(changedOutputs.isEmpty());
+    assertEquals("Jangaroo build cache: 0 hits, 1 misses (0% hit rate).", buildCache.getReport());
+  }
+
+  @Test
+  public void testOutputOutsideOutputDirectoryIsNotStored() throws IOException {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    File foreignOutput = new File(tempDirectory, "elsewhere/A.js");
+    FileUtil.writeToFile(foreignOutput, "js");
+    buildCache.store("ab01", outputDirectory, Collections.singletonList(foreignOutput), null, null,
+      Collections.<JpsCompileLog.Warning>emptyList());
+    assertNull(buildCache.restore("ab01", outputDirectory, null, new HashSet<File>(), new ArrayList<JpsCompileLog.Warning>()));
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws IOException {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    storeEntry(buildCache, "ab01", "A", "0123456789", Collections.<JpsCompileLog.Warning>emptyList());
+    storeEntry(buildCache, "ab02", "B", "0123456789", Collections.<JpsCompileLog.Warning>emptyList());
+    storeEntry(buildCache, "cd03", "C", "0123456789", Collections.<JpsCompileLog.Warning>emptyList());
+    File oldest = new File(cacheDirectory, "ab/ab02");
+    File middle = new File(cacheDirectory, "cd/cd03");
+    File newest = new File(cacheDirectory, "ab/ab01");
+    assertTrue(oldest.setLastModified(1000000000000L));
+    assertTrue(middle.setLastModified(1000000100000L));
+    assertTrue(newest.setLastModified(1000000200000L));
+    long entrySize = getSize(newest);
+
+    // room for two entries, but eviction goes down to 90% of the limit:
+    new JangarooBuildCache(cacheDirectory, 2 * entrySize).evict();
+    assertFalse(oldest.exists());
+    assertFalse(middle.exists());
+    assertTrue(newest.exists());
+  }
+
+  @Test
+  public void testNoEvictionBelowLimit() throws IOException {
+    JangarooBuildCache buildCache = new JangarooBuildCache(cacheDirectory, Long.MAX_VALUE);
+    storeEntry(buildCache, "ab01", "A", "js", Collections.<JpsCompileLog.Warning>emptyList());
+    buildCache.evict();
+    assertTrue(new File(cacheDirectory, "ab/ab01").exists());
+  }
+
+  private void storeEntry(JangarooBuildCache buildCache, String key, String className, String content,
+                          List<JpsCompileLog.Warning> warnings) throws IOException {
+    File output = new File(outputDirectory, "com/acme/" + className + ".js");
+    File sourceMap = new File(outputDirectory, "com/acme/" + className + ".js.map");
+    File apiStub = new File(apiOutputDirectory, "com/acme/" + className + ".as");
+    FileUtil.writeToFile(output, content);
+    FileUtil.writeToFile(sourceMap, content + ".map");
+    FileUtil.writeToFile(apiStub, "api");
+    buildCache.store(key, outputDirectory, Arrays.asList(output, sourceMap), apiOutputDirectory, apiStub, warnings);
+    FileUtil.delete(output);
+    FileUtil.delete(sourceMap);
+    FileUtil.delete(apiStub);
+  }
+
+  private static long getSize(File file) {
+    File[] children = file.listFiles();
+    if (children == null) {
+      return file.length();
+    }
+    long size = 0;
+    for (File child : children) {
+      size += getSize(child);
+    }
+    return size;
+  }
+
+}
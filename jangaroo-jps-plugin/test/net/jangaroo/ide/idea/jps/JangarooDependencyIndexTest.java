@@ -0,0 +1,99 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.ide.idea.jps.util.ClassReferenceScanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JangarooDependencyIndexTest {
+
+  private File tempDirectory;
+  private File indexFile;
+  private final File a = new File("/src/com/acme/A.as");
+  private final File b = new File("/src/com/acme/B.as");
+  private final File c = new File("/src/com/acme/view/C.mxml");
+
+  @Before
+  public void setUp() throws IOException {
+    tempDirectory = FileUtil.createTempDirectory("jangaroo-dependency-index", null);
+    indexFile = new File(tempDirectory, "dependencies.dat");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(tempDirectory);
+  }
+
+  @Test
+  public void testDirectDependents() {
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    index.update(a, Arrays.asList("ext.Panel", "com.acme.B"));
+    index.update(b, Collections.singletonList("ext.Panel"));
+    assertEquals(new HashSet<File>(Arrays.asList(a, b)), index.getDependents("ext.Panel"));
+    assertEquals(Collections.singleton(a), index.getDependents("com.acme.B"));
+    assertTrue(index.getDependents("ext.Button").isEmpty());
+  }
+
+  @Test
+  public void testWildcardImportDependents() {
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    index.update(a, Collections.singletonList("ext.*"));
+    assertEquals(Collections.singleton(a), index.getDependents("ext.Panel"));
+    // a wildcard import does not cover sub-packages:
+    assertTrue(index.getDependents("ext.panel.Panel").isEmpty());
+  }
+
+  @Test
+  public void testAnyClassDependents() {
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    index.update(c, Collections.singletonList(ClassReferenceScanner.ANY_CLASS));
+    index.update(a, Collections.singletonList("ext.Panel"));
+    assertEquals(Collections.singleton(c), index.getDependents("com.acme.B"));
+    assertEquals(new HashSet<File>(Arrays.asList(a, c)), index.getDependents("ext.Panel"));
+  }
+
+  @Test
+  public void testUpdateAndRemove() {
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    index.update(a, Arrays.asList("ext.Panel", "com.acme.B"));
+    index.update(a, Collections.singletonList("ext.Button"));
+    assertTrue(index.getDependents("ext.Panel").isEmpty());
+    assertEquals(Collections.singleton(a), index.getDependents("ext.Button"));
+    assertEquals(Collections.singleton("ext.Button"), index.getReferencedClasses());
+    index.remove(a);
+    assertTrue(index.getDependents("ext.Button").isEmpty());
+    assertTrue(index.getSourceFiles().isEmpty());
+    assertTrue(index.getReferencedClasses().isEmpty());
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    index.update(a, Arrays.asList("ext.Panel", "com.acme.B"));
+    index.update(c, Collections.singletonList("com.acme.*"));
+    index.save();
+
+    JangarooDependencyIndex loadedIndex = JangarooDependencyIndex.load(indexFile);
+    assertEquals(new HashSet<File>(Arrays.asList(a, c)), loadedIndex.getSourceFiles());
+    assertEquals(new HashSet<File>(Arrays.asList(a, c)), loadedIndex.getDependents("com.acme.B"));
+    assertEquals(Collections.singleton(a), loadedIndex.getDependents("ext.Panel"));
+  }
+
+  @Test
+  public void testLoadCorruptIndex() throws IOException {
+    FileUtil.writeToFile(indexFile, "garbage");
+    JangarooDependencyIndex index = JangarooDependencyIndex.load(indexFile);
+    assertTrue(index.getSourceFiles().isEmpty());
+  }
+
+}
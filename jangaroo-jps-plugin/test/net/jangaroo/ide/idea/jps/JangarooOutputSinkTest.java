@@ -0,0 +1,132 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JangarooOutputSinkTest {
+
+  private File tempDirectory;
+  private File sourceRoot;
+  private File packageDirectory;
+  private File outputDirectory;
+  private File apiOutputDirectory;
+  private JangarooOutputSink outputSink;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDirectory = FileUtil.createTempDirectory("jangaroo-output-sink", null);
+    sourceRoot = new File(tempDirectory, "module/src/main/joo");
+    packageDirectory = new File(tempDirectory, "module/target/packages/acme");
+    outputDirectory = new File(packageDirectory, "src");
+    apiOutputDirectory = new File(tempDirectory, "module/target/api");
+    outputSink = JangarooOutputSink.create(new File(tempDirectory, "staging"), outputDirectory, apiOutputDirectory);
+  }
+
+  @After
+  public void tearDown() {
+    outputSink.dispose();
+    FileUtil.delete(tempDirectory);
+  }
+
+  @Test
+  public void testCommitMovesOnlyChangedOutputs() throws IOException {
+    File unchangedOutput = new File(outputDirectory, "com/acme/A.js");
+    FileUtil.writeToFile(unchangedOutput, "same");
+    long lastModified = 1000000000000L;
+    assertTrue(unchangedOutput.setLastModified(lastModified));
+    File changedOutput = new File(outputDirectory, "com/acme/B.js");
+    FileUtil.writeToFile(changedOutput, "old");
+    FileUtil.writeToFile(new File(outputSink.getStagedOutputDirectory(), "com/acme/A.js"), "same");
+    FileUtil.writeToFile(new File(outputSink.getStagedOutputDirectory(), "com/acme/B.js"), "new");
+    FileUtil.writeToFile(new File(outputSink.getStagedOutputDirectory(), "com/acme/C.js"), "added");
+
+    Set<File> changedOutputs = outputSink.commit();
+
+    File addedOutput = new File(outputDirectory, "com/acme/C.js");
+    assertEquals(2, changedOutputs.size());
+    assertTrue(changedOutputs.contains(changedOutput));
+    assertTrue(changedOutputs.contains(addedOutput));
+    assertEquals(1, outputSink.getUnchangedCount());
+    assertEquals(lastModified, unchangedOutput.lastModified());
+    assertEquals("new", FileUtil.loadFile(changedOutput));
+    assertEquals("added", FileUtil.loadFile(addedOutput));
+  }
+
+  @Test
+  public void testCommitApiStubsAndPackageSiblings() throws IOException {
+    File stagedApiOutputDirectory = outputSink.getStagedApiOutputDirectory();
+    File stagedPackageDirectory = outputSink.getStagedOutputDirectory().getParentFile();
+    FileUtil.writeToFile(new File(stagedApiOutputDirectory, "com/acme/A.as"), "api");
+    FileUtil.writeToFile(new File(stagedPackageDirectory, "overrides/com/acme/A.js"), "override");
+
+    Set<File> changedOutputs = outputSink.commit();
+
+    File apiStub = new File(apiOutputDirectory, "com/acme/A.as");
+    File override = new File(packageDirectory, "overrides/com/acme/A.js");
+    assertTrue(changedOutputs.contains(apiStub));
+    assertTrue(changedOutputs.contains(override));
+    assertEquals("api", FileUtil.loadFile(apiStub));
+    assertEquals("override", FileUtil.loadFile(override));
+  }
+
+  @Test
+  public void testNoApiOutputDirectory() {
+    JangarooOutputSink testOutputSink = JangarooOutputSink.create(new File(tempDirectory, "test-staging"), outputDirectory, null);
+    assertNull(testOutputSink.getStagedApiOutputDirectory());
+    testOutputSink.dispose();
+  }
+
+  @Test
+  public void testRebaseSources() throws IOException {
+    File stagedSourceMap = new File(outputSink.getStagedOutputDirectory(), "com/acme/A.js.map");
+    File sourceFile = new File(sourceRoot, "com/acme/A.as");
+    String stagedSourcePath = relativePath(stagedSourceMap.getParentFile(), sourceFile);
+    FileUtil.writeToFile(stagedSourceMap, "{\"version\":3,\"file\":\"A.js\",\"sources\":[\"" + stagedSourcePath
+      + "\", \"http://acme.com/B.as\", \"/abs/C.as\"],\"names\":[],\"mappings\":\"AAAA\"}");
+
+    outputSink.rebaseSourceMaps();
+
+    File sourceMap = new File(outputDirectory, "com/acme/A.js.map");
+    assertEquals("{\"version\":3,\"file\":\"A.js\",\"sources\":[\"" + relativePath(sourceMap.getParentFile(), sourceFile)
+      + "\", \"http://acme.com/B.as\", \"/abs/C.as\"],\"names\":[],\"mappings\":\"AAAA\"}", FileUtil.loadFile(stagedSourceMap));
+    assertEquals("../../../../../../src/main/joo/com/acme/A.as", relativePath(sourceMap.getParentFile(), sourceFile));
+  }
+
+  @Test
+  public void testRebaseSourceRoot() throws IOException {
+    File stagedSourceMap = new File(outputSink.getStagedOutputDirectory(), "com/acme/A.js.map");
+    String stagedSourceRootPath = relativePath(stagedSourceMap.getParentFile(), sourceRoot);
+    FileUtil.writeToFile(stagedSourceMap, "{\"sourceRoot\": \"" + stagedSourceRootPath + "\", \"sources\": [\"com/acme/A.as\"]}");
+
+    outputSink.rebaseSourceMaps();
+
+    File sourceMap = new File(outputDirectory, "com/acme/A.js.map");
+    assertEquals("{\"sourceRoot\": \"" + relativePath(sourceMap.getParentFile(), sourceRoot) + "\", \"sources\": [\"com/acme/A.as\"]}",
+      FileUtil.loadFile(stagedSourceMap));
+  }
+
+  @Test
+  public void testRebaseLeavesOtherFilesAlone() throws IOException {
+    File stagedOutput = new File(outputSink.getStagedOutputDirectory(), "com/acme/A.js");
+    String content = "//# sourceMappingURL=A.js.map\n\"sources\":[\"../A.as\"]";
+    FileUtil.writeToFile(stagedOutput, content);
+    outputSink.rebaseSourceMaps();
+    assertEquals(content, FileUtil.loadFile(stagedOutput));
+    assertEquals(new File(outputDirectory, "com/acme/A.js"), outputSink.toOutputFile(stagedOutput));
+  }
+
+  private static String relativePath(File fromDirectory, File file) {
+    return FileUtil.toSystemIndependentName(FileUtil.getRelativePath(fromDirectory, file));
+  }
+
+}
@@ -0,0 +1,79 @@
+package net.jangaroo.ide.idea.jps;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JangarooPendingSourcesTest {
+
+  private File tempDirectory;
+  private File pendingSourcesFile;
+
+  @Before
+  public void setUp() throws IOException {
+    tempDirectory = FileUtil.createTempDirectory("jangaroo-pending-sources", null);
+    pendingSourcesFile = new File(tempDirectory, "pending-sources.dat");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(tempDirectory);
+  }
+
+  @Test
+  public void testSaveAndLoad() throws IOException {
+    File a = createSource("A.as");
+    File b = createSource("B.as");
+    JangarooPendingSources pendingSources = JangarooPendingSources.load(pendingSourcesFile);
+    assertTrue(pendingSources.isEmpty());
+    pendingSources.addAll(Arrays.asList(a, b, a));
+    assertFalse(pendingSources.isEmpty());
+    pendingSources.save();
+
+    JangarooPendingSources loadedPendingSources = JangarooPendingSources.load(pendingSourcesFile);
+    assertEquals(Arrays.asList(a, b), loadedPendingSources.getSourceFiles());
+  }
+
+  @Test
+  public void testDeletedSourcesAreNotPending() throws IOException {
+    File a = createSource("A.as");
+    File b = createSource("B.as");
+    JangarooPendingSources pendingSources = JangarooPendingSources.load(pendingSourcesFile);
+    pendingSources.addAll(Arrays.asList(a, b));
+    assertTrue(b.delete());
+    assertEquals(Collections.singletonList(a), pendingSources.getSourceFiles());
+  }
+
+  @Test
+  public void testClear() throws IOException {
+    JangarooPendingSources pendingSources = JangarooPendingSources.load(pendingSourcesFile);
+    pendingSources.addAll(Collections.singletonList(createSource("A.as")));
+    pendingSources.save();
+    pendingSources.clear();
+    pendingSources.save();
+    assertTrue(JangarooPendingSources.load(pendingSourcesFile).isEmpty());
+  }
+
+  @Test
+  public void testLoadCorruptFile() throws IOException {
+    FileUtil.writeToFile(pendingSourcesFile, "garbage");
+    assertTrue(JangarooPendingSources.load(pendingSourcesFile).isEmpty());
+  }
+
+  private File createSource(String name) throws IOException {
+    File source = new File(tempDirectory, "src/com/acme/" + name);
+    FileUtil.writeToFile(source, "package com.acme {}");
+    return source;
+  }
+
+}
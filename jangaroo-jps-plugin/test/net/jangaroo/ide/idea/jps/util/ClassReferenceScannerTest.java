@@ -0,0 +1,116 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import com.intellij.openapi.util.io.FileUtil;
+import net.jangaroo.jooc.config.NamespaceConfiguration;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ClassReferenceScannerTest {
+
+  private static final String EXT_NAMESPACE = "http://www.sencha.com/ext6";
+
+  @Test
+  public void testDefaultNamespaceResolvedThroughManifest() {
+    Map<String, String> componentClasses = new HashMap<String, String>();
+    componentClasses.put("Panel", "ext.panel.Panel");
+    Set<String> referencedClasses = scan("<?xml version=\"1.0\"?>\n"
+      + "<Panel xmlns=\"" + EXT_NAMESPACE + "\" xmlns:fx=\"http://ns.adobe.com/mxml/2009\">\n"
+      + "  <fx:Script/>\n"
+      + "  <items/>\n"
+      + "</Panel>", Collections.singletonMap(EXT_NAMESPACE, componentClasses));
+    assertTrue(referencedClasses.contains("ext.panel.Panel"));
+    // property elements and MXML language elements denote no classes:
+    assertFalse(referencedClasses.contains(ClassReferenceScanner.ANY_CLASS));
+    assertFalse(referencedClasses.contains("ext.panel.items"));
+  }
+
+  @Test
+  public void testDefaultPackageNamespace() {
+    Set<String> referencedClasses = scan("<Widget xmlns=\"com.acme.ui.*\"/>", noManifests());
+    assertTrue(referencedClasses.contains("com.acme.ui.Widget"));
+  }
+
+  @Test
+  public void testPrefixedPackageNamespaces() {
+    Set<String> referencedClasses = scan("<ui:Widget xmlns:ui=\"com.acme.ui.*\" xmlns:cfg=\"exml:com.acme.config\""
+      + " xmlns:local=\"*\">\n"
+      + "  <cfg:widget/>\n"
+      + "  <local:Helper/>\n"
+      + "</ui:Widget>", noManifests());
+    assertTrue(referencedClasses.contains("com.acme.ui.Widget"));
+    assertTrue(referencedClasses.contains("com.acme.config.widget"));
+    assertTrue(referencedClasses.contains("com.acme.view.Helper"));
+  }
+
+  @Test
+  public void testUnresolvedNamespaceReferencesAnyClass() {
+    Set<String> referencedClasses = scan("<Panel xmlns=\"" + EXT_NAMESPACE + "\"/>", noManifests());
+    assertTrue(referencedClasses.contains(ClassReferenceScanner.ANY_CLASS));
+  }
+
+  @Test
+  public void testReadManifest() throws IOException {
+    File manifest = FileUtil.createTempFile("manifest", ".xml", true);
+    FileUtil.writeToFile(manifest, "<?xml version=\"1.0\"?>\n"
+      + "<componentPackage>\n"
+      + "  <component id=\"Panel\" class=\"ext.panel.Panel\"/>\n"
+      + "  <component class='ext.button.Button' id='Button'/>\n"
+      + "</componentPackage>");
+    Map<String, String> componentClasses = ClassReferenceScanner.readManifest(manifest);
+    assertEquals(2, componentClasses.size());
+    assertEquals("ext.panel.Panel", componentClasses.get("Panel"));
+    assertEquals("ext.button.Button", componentClasses.get("Button"));
+  }
+
+  @Test
+  public void testReadMissingManifest() {
+    assertNull(ClassReferenceScanner.readManifest(new File(FileUtil.getTempDirectory(), "no-such-manifest.xml")));
+  }
+
+  @Test
+  public void testNamespaceWithUnreadableManifestReferencesAnyClass() throws IOException {
+    File manifest = FileUtil.createTempFile("manifest", ".xml", true);
+    FileUtil.writeToFile(manifest, "<componentPackage><component id=\"Panel\" class=\"ext.panel.Panel\"/></componentPackage>");
+    File missingManifest = new File(manifest.getParentFile(), "no-such-manifest.xml");
+    Map<String, Map<String, String>> componentClassesByNamespace = ClassReferenceScanner.readManifests(Arrays.asList(
+      new NamespaceConfiguration(EXT_NAMESPACE, manifest),
+      new NamespaceConfiguration(EXT_NAMESPACE, missingManifest)));
+    assertFalse(componentClassesByNamespace.containsKey(EXT_NAMESPACE));
+    Set<String> referencedClasses = scan("<Button xmlns=\"" + EXT_NAMESPACE + "\"/>", componentClassesByNamespace);
+    assertTrue(referencedClasses.contains(ClassReferenceScanner.ANY_CLASS));
+  }
+
+  @Test
+  public void testReadManifestsMergesNamespaces() throws IOException {
+    File panelManifest = FileUtil.createTempFile("manifest", ".xml", true);
+    FileUtil.writeToFile(panelManifest, "<componentPackage><component id=\"Panel\" class=\"ext.panel.Panel\"/></componentPackage>");
+    File buttonManifest = FileUtil.createTempFile("manifest", ".xml", true);
+    FileUtil.writeToFile(buttonManifest, "<componentPackage><component id=\"Button\" class=\"ext.button.Button\"/></componentPackage>");
+    Map<String, Map<String, String>> componentClassesByNamespace = ClassReferenceScanner.readManifests(Arrays.asList(
+      new NamespaceConfiguration(EXT_NAMESPACE, panelManifest),
+      new NamespaceConfiguration(EXT_NAMESPACE, buttonManifest)));
+    assertEquals("ext.panel.Panel", componentClassesByNamespace.get(EXT_NAMESPACE).get("Panel"));
+    assertEquals("ext.button.Button", componentClassesByNamespace.get(EXT_NAMESPACE).get("Button"));
+  }
+
+  private static Set<String> scan(String mxml, Map<String, Map<String, String>> componentClassesByNamespace) {
+    return ClassReferenceScanner.scan(mxml, "com.acme.view", true, componentClassesByNamespace);
+  }
+
+  private static Map<String, Map<String, String>> noManifests() {
+    return Collections.emptyMap();
+  }
+
+}
@@ -0,0 +1,126 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import net.jangaroo.jooc.api.FilePosition;
+import org.jetbrains.jps.incremental.MessageHandler;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JpsCompileLogTest {
+
+  private static final String FILE = new File("/src/com/acme/A.as").getAbsolutePath();
+  private static final String OTHER_FILE = new File("/src/com/acme/B.as").getAbsolutePath();
+
+  private final List<CompilerMessage> messages = new ArrayList<CompilerMessage>();
+  private final JpsCompileLog compileLog = new JpsCompileLog("jooc", new MessageHandler() {
+    public void processMessage(BuildMessage msg) {
+      messages.add((CompilerMessage)msg);
+    }
+  });
+
+  @Test
+  public void testErrorsAreDeliveredImmediately() {
+    compileLog.error(position(FILE, 1, 2), "syntax error");
+    compileLog.error("internal error");
+    assertEquals(2, messages.size());
+    assertEquals(BuildMessage.Kind.ERROR, messages.get(0).getKind());
+    assertEquals(FILE, messages.get(0).getSourcePath());
+    assertTrue(compileLog.hasErrors());
+    assertEquals(2, compileLog.getErrorCount());
+  }
+
+  @Test
+  public void testWarningsAreBufferedAndCollapsed() {
+    compileLog.warning(position(FILE, 3, 1), "unused variable");
+    compileLog.warning(position(FILE, 3, 1), "unused variable");
+    compileLog.warning(position(FILE, 3, 1), "unused variable");
+    compileLog.warning(position(FILE, 4, 1), "unused variable");
+    assertTrue(messages.isEmpty());
+    compileLog.flush();
+    assertEquals(2, messages.size());
+    assertEquals("unused variable (3 times)", messages.get(0).getMessageText());
+    assertEquals(BuildMessage.Kind.WARNING, messages.get(0).getKind());
+    assertEquals("unused variable", messages.get(1).getMessageText());
+    // identical warnings are recorded only once:
+    assertEquals(2, compileLog.getWarnings(FILE).size());
+    compileLog.flush();
+    assertEquals(2, messages.size());
+  }
+
+  @Test
+  public void testWarningsPerFileAreCapped() {
+    for (int i = 0; i < 25; i++) {
+      compileLog.warning(position(FILE, i, 1), "warning " + i);
+    }
+    compileLog.warning(position(OTHER_FILE, 1, 1), "other warning");
+    compileLog.flush();
+    assertEquals(20 + 1 + 1, messages.size());
+    CompilerMessage summary = messages.get(messages.size() - 1);
+    assertEquals("5 more warnings in this file not shown.", summary.getMessageText());
+    assertEquals(FILE, summary.getSourcePath());
+    // all warnings are recorded for replay, even those not shown:
+    assertEquals(25, compileLog.getWarnings(FILE).size());
+  }
+
+  @Test
+  public void testWarningsAreCappedInTotal() {
+    for (int file = 0; file < 11; file++) {
+      for (int i = 0; i < 20; i++) {
+        compileLog.warning(position(new File("/src/C" + file + ".as").getAbsolutePath(), i, 1), "warning " + i);
+      }
+    }
+    compileLog.warning("global warning");
+    compileLog.flush();
+    assertEquals(200 + 1, messages.size());
+    assertEquals("21 more warnings not shown.", messages.get(messages.size() - 1).getMessageText());
+  }
+
+  @Test
+  public void testReplayedWarningsAreNeitherCappedNorRecorded() {
+    for (int i = 0; i < 25; i++) {
+      compileLog.replayWarning(FILE, new JpsCompileLog.Warning("warning " + i, i, 1));
+    }
+    compileLog.replayWarning(FILE, new JpsCompileLog.Warning("warning 0", 0, 1));
+    for (int i = 0; i < 20; i++) {
+      compileLog.warning(position(OTHER_FILE, i, 1), "warning " + i);
+    }
+    compileLog.flush();
+    assertEquals(25 + 20, messages.size());
+    assertEquals("warning 0 (2 times)", messages.get(0).getMessageText());
+    assertTrue(compileLog.getWarnings(FILE).isEmpty());
+  }
+
+  @Test
+  public void testRestoredWarningsAreTreatedLikeNewOnes() {
+    compileLog.restoreWarning(FILE, new JpsCompileLog.Warning("unused import", 2, 8));
+    compileLog.flush();
+    assertEquals(1, messages.size());
+    assertEquals(2L, messages.get(0).getLine());
+    assertEquals(1, compileLog.getWarnings(FILE).size());
+    assertEquals("unused import", compileLog.getWarnings(FILE).get(0).getMessage());
+  }
+
+  private static FilePosition position(final String fileName, final int line, final int column) {
+    return new FilePosition() {
+      public String getFileName() {
+        return fileName;
+      }
+
+      public int getLine() {
+        return line;
+      }
+
+      public int getColumn() {
+        return column;
+      }
+    };
+  }
+
+}
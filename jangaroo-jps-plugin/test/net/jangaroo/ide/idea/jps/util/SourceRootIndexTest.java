@@ -0,0 +1,59 @@
+package net.jangaroo.ide.idea.jps.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SourceRootIndexTest {
+
+  private final File sourceRoot = new File("/project/module/src/main/joo").getAbsoluteFile();
+  private final File generatedSourceRoot = new File("/project/module/src/main/joo/generated").getAbsoluteFile();
+  private final SourceRootIndex index = new SourceRootIndex(Arrays.asList(sourceRoot, generatedSourceRoot));
+
+  @Test
+  public void testInnermostRoot() {
+    assertEquals(sourceRoot, index.getRoot(new File(sourceRoot, "com/acme/A.as")));
+    assertEquals(generatedSourceRoot, index.getRoot(new File(generatedSourceRoot, "com/acme/B.as")));
+  }
+
+  @Test
+  public void testRootItself() {
+    assertEquals(sourceRoot, index.getRoot(sourceRoot));
+  }
+
+  @Test
+  public void testFileOutsideRoots() {
+    assertNull(index.getRoot(new File("/project/module/src/main/joo-api/com/acme/A.as").getAbsoluteFile()));
+    assertNull(index.getRoot(new File("/project/module/pom.xml").getAbsoluteFile()));
+    assertNull(index.getRoot(new File("/").getAbsoluteFile()));
+  }
+
+  @Test
+  public void testRootWithTrailingSeparator() {
+    SourceRootIndex trailingSeparatorIndex = new SourceRootIndex(Collections.singletonList(new File(sourceRoot.getPath() + File.separator)));
+    assertEquals(sourceRoot.getPath(), trailingSeparatorIndex.getRoot(new File(sourceRoot, "com/acme/A.as")).getPath());
+  }
+
+  @Test
+  public void testFileSystemRoot() {
+    File fileSystemRoot = new File("/").getAbsoluteFile();
+    SourceRootIndex fileSystemRootIndex = new SourceRootIndex(Collections.singletonList(fileSystemRoot));
+    assertEquals(fileSystemRoot, fileSystemRootIndex.getRoot(new File(sourceRoot, "com/acme/A.as")));
+  }
+
+  @Test
+  public void testEmpty() {
+    SourceRootIndex emptyIndex = new SourceRootIndex(Collections.<File>emptyList());
+    assertTrue(emptyIndex.isEmpty());
+    assertFalse(index.isEmpty());
+    assertNull(emptyIndex.getRoot(new File(sourceRoot, "com/acme/A.as")));
+  }
+
+}